@@ -20,12 +20,20 @@ import alpine.Config;
 
 public enum HakbotConfigKey implements Config.Key {
 
-    MAX_QUEUE_SIZE            ("hakbot.max.queue.size",             100),
-    QUEUE_CHECK_INTERVAL      ("hakbot.queue.check.interval",       30),
-    JOB_PRUNE_CHECK_INTERVAL  ("hakbot.job.prune.check.interval",   1),
-    JOB_PRUNE_INTERVAL        ("hakbot.job.prune.interval",         14),
-    PROVIDERS_ENABLED         ("hakbot.providers.enabled",          null),
-    PUBLISHERS_ENABLED        ("hakbot.publishers.enabled",         null);
+    MAX_QUEUE_SIZE               ("hakbot.max.queue.size",                100),
+    QUEUE_CHECK_INTERVAL         ("hakbot.queue.check.interval",          30),
+    PROGRESS_CHECK_MAX_INTERVAL  ("hakbot.progress.check.max.interval",   900),
+    QUEUE_RECOVERY_INTERVAL      ("hakbot.queue.recovery.interval",       10),
+    PROVIDER_CONCURRENCY         ("hakbot.provider.concurrency",          4),
+    JOB_UPDATE_FLUSH_INTERVAL    ("hakbot.job.update.flush.interval",     250),
+    JOB_PRUNE_CHECK_INTERVAL     ("hakbot.job.prune.check.interval",      1),
+    JOB_PRUNE_INTERVAL           ("hakbot.job.prune.interval",            14),
+    WEBHOOK_POLL_INTERVAL        ("hakbot.webhook.poll.interval",         10),
+    WEBHOOK_MAX_ATTEMPTS         ("hakbot.webhook.max.attempts",          10),
+    WEBHOOK_ALLOWED_HOSTS        ("hakbot.webhook.allowed.hosts",         null),
+    PROVIDERS_ENABLED            ("hakbot.providers.enabled",             null),
+    PUBLISHERS_ENABLED           ("hakbot.publishers.enabled",            null),
+    REMOTE_INSTANCES_FILE        ("hakbot.remote.instances.file",         null);
 
 
     private String propertyName;
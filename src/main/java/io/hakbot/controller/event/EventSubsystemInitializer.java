@@ -19,12 +19,16 @@ package io.hakbot.controller.event;
 import alpine.event.LdapSyncEvent;
 import alpine.event.framework.EventService;
 import alpine.tasks.LdapSyncTask;
+import io.hakbot.controller.plugin.RemoteInstanceRegistry;
 import io.hakbot.controller.tasks.TaskScheduler;
 import io.hakbot.controller.workers.JobManager;
 import io.hakbot.controller.workers.JobProcessWorker;
 import io.hakbot.controller.workers.JobProgressCheckWorker;
 import io.hakbot.controller.workers.JobPublishWorker;
+import io.hakbot.controller.workers.JobUpdateBroadcaster;
 import io.hakbot.controller.workers.JobUpdateLogger;
+import io.hakbot.controller.workers.JobUpdateWriter;
+import io.hakbot.controller.workers.WebhookDispatcher;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
@@ -36,18 +40,24 @@ public class EventSubsystemInitializer implements ServletContextListener {
     public void contextInitialized(ServletContextEvent event) {
         EVENT_SERVICE.subscribe(JobProcessEvent.class, JobProcessWorker.class);
         EVENT_SERVICE.subscribe(JobProgressCheckEvent.class, JobProgressCheckWorker.class);
+        EVENT_SERVICE.subscribe(JobBatchProgressCheckEvent.class, JobProgressCheckWorker.class);
         EVENT_SERVICE.subscribe(JobPublishEvent.class, JobPublishWorker.class);
         EVENT_SERVICE.subscribe(JobUpdateEvent.class, JobUpdateLogger.class);
         EVENT_SERVICE.subscribe(LdapSyncEvent.class, LdapSyncTask.class);
 
-        // Starts the JobManager and TaskScheduler
+        // Starts the JobManager, TaskScheduler and WebhookDispatcher
         JobManager.getInstance();
         TaskScheduler.getInstance();
+        WebhookDispatcher.getInstance();
     }
 
     public void contextDestroyed(ServletContextEvent event) {
+        JobUpdateWriter.getInstance().shutdown();
+        JobUpdateBroadcaster.getInstance().shutdown();
         JobManager.getInstance().shutdown();
+        WebhookDispatcher.getInstance().shutdown();
         TaskScheduler.getInstance().shutdown();
+        RemoteInstanceRegistry.getInstance().shutdown();
 
         EVENT_SERVICE.unsubscribe(JobProcessWorker.class);
         EVENT_SERVICE.unsubscribe(JobProgressCheckWorker.class);
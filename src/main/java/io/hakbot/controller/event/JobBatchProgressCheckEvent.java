@@ -0,0 +1,49 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.event;
+
+import alpine.event.framework.Event;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This event is called when several jobs of a BatchAsynchronousProvider are
+ * in need of a status update.
+ *
+ * @see io.hakbot.controller.workers.JobProgressCheckWorker
+ * @see io.hakbot.providers.BatchAsynchronousProvider
+ */
+public class JobBatchProgressCheckEvent implements Event {
+
+    private String provider;
+    private List<String> jobUuids;
+
+    public JobBatchProgressCheckEvent(String provider, List<String> jobUuids) {
+        this.provider = provider;
+        this.jobUuids = Collections.unmodifiableList(new ArrayList<>(jobUuids));
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    public List<String> getJobUuids() {
+        return jobUuids;
+    }
+
+}
@@ -21,6 +21,8 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import io.hakbot.controller.workers.State;
 import javax.jdo.annotations.Column;
 import javax.jdo.annotations.IdGeneratorStrategy;
+import javax.jdo.annotations.Index;
+import javax.jdo.annotations.Indices;
 import javax.jdo.annotations.NotPersistent;
 import javax.jdo.annotations.PersistenceCapable;
 import javax.jdo.annotations.Persistent;
@@ -30,6 +32,13 @@ import java.io.Serializable;
 import java.util.Date;
 
 @PersistenceCapable
+@Indices({
+        @Index(name="JOB_STATE_CREATED_IDX", members={"state", "created"}),
+        @Index(name="JOB_PROVIDER_STATE_CREATED_IDX", members={"provider", "state", "created"}),
+        @Index(name="JOB_CREATED_ID_IDX", members={"created", "id"}),
+        @Index(name="JOB_APIKEY_CREATED_IDX", members={"apiKeyId", "created"}),
+        @Index(name="JOB_COMPLETED_IDX", members={"completed"})
+})
 @JsonInclude(JsonInclude.Include.NON_NULL)
 public class Job implements Serializable {
 
@@ -57,8 +66,10 @@ public class Job implements Serializable {
     @Column(name="PUBLISHER", jdbcType="VARCHAR", length=255)
     private String publisher;
 
-    @Persistent(defaultFetchGroup="true")
+    // Messages are stored as JobMessage objects. This field only holds messages of jobs created by earlier versions
+    @Persistent(defaultFetchGroup="false")
     @Column(name="MESSAGE", jdbcType="CLOB")
+    @JsonIgnore
     private String message;
 
     @Persistent
@@ -20,6 +20,8 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import javax.jdo.annotations.Column;
 import javax.jdo.annotations.IdGeneratorStrategy;
+import javax.jdo.annotations.Index;
+import javax.jdo.annotations.Indices;
 import javax.jdo.annotations.PersistenceCapable;
 import javax.jdo.annotations.Persistent;
 import javax.jdo.annotations.PrimaryKey;
@@ -27,6 +29,10 @@ import javax.jdo.annotations.Unique;
 import java.io.Serializable;
 
 @PersistenceCapable
+@Indices({
+        @Index(name="JOBARTIFACT_JOBID_TYPE_IDX", members={"jobid", "type"}),
+        @Index(name="JOBARTIFACT_DIGEST_IDX", members={"digest"})
+})
 @JsonInclude(JsonInclude.Include.NON_NULL)
 public class JobArtifact implements Serializable {
 
@@ -90,10 +96,23 @@ public class JobArtifact implements Serializable {
     @Column(name="FILENAME", jdbcType="VARCHAR", length=255)
     public String filename;
 
-    @Persistent
+    /**
+     * Contents held in the database. Empty when the contents are held in the
+     * ArtifactStore, in which case the digest identifies them. Loaded on first access.
+     */
+    @Persistent(defaultFetchGroup="false")
     @Column(name="CONTENTS", jdbcType="BLOB", allowsNull="false")
     public byte[] contents;
 
+    @Persistent
+    @Column(name="DIGEST", jdbcType="VARCHAR", length=64)
+    @JsonIgnore
+    private String digest;
+
+    @Persistent
+    @Column(name="SIZE")
+    private Long size;
+
     public long getId() {
         return id;
     }
@@ -153,4 +172,20 @@ public class JobArtifact implements Serializable {
     public void setContents(byte[] contents) {
         this.contents = contents;
     }
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public void setDigest(String digest) {
+        this.digest = digest;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
 }
@@ -0,0 +1,148 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import javax.jdo.annotations.Column;
+import javax.jdo.annotations.IdGeneratorStrategy;
+import javax.jdo.annotations.Index;
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+import java.io.Serializable;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * A single processing message produced by a job. Messages are only ever appended
+ * and are numbered by a sequence which is unique per job.
+ */
+@PersistenceCapable
+@Index(name="JOBMESSAGE_JOBID_SEQUENCE_IDX", members={"jobid", "sequence"})
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class JobMessage implements Serializable {
+
+    private static final long serialVersionUID = -4836372853611482903L;
+
+    public enum Level {
+        INFO,
+        ERROR
+    }
+
+    @PrimaryKey
+    @Persistent(valueStrategy=IdGeneratorStrategy.INCREMENT)
+    @JsonIgnore
+    private long id;
+
+    @Persistent
+    @Column(name="JOB_ID", allowsNull="false")
+    @JsonIgnore
+    private long jobid;
+
+    @Persistent
+    @Column(name="SEQUENCE", allowsNull="false")
+    private long sequence;
+
+    @Persistent
+    @Column(name="TIMESTAMP", jdbcType="TIMESTAMP", allowsNull="false")
+    private Date timestamp;
+
+    @Persistent
+    @Column(name="LEVEL", jdbcType="VARCHAR", length=10, allowsNull="false")
+    private String level;
+
+    @Persistent(defaultFetchGroup="true")
+    @Column(name="TEXT", jdbcType="CLOB", allowsNull="false")
+    private String text;
+
+    public JobMessage() {
+    }
+
+    public JobMessage(Job job, long sequence, Level level, String text) {
+        this.jobid = job.getId();
+        this.sequence = sequence;
+        this.timestamp = new Date();
+        this.level = level.name();
+        this.text = text;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getJobId() {
+        return jobid;
+    }
+
+    public void setJobId(long jobid) {
+        this.jobid = jobid;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public Date getTimestamp() {
+        if (timestamp != null) {
+            return new Date(timestamp.getTime());
+        }
+        return null;
+    }
+
+    public void setTimestamp(Date timestamp) {
+        if (timestamp == null) {
+            this.timestamp = null;
+        } else {
+            this.timestamp = new Date(timestamp.getTime());
+        }
+    }
+
+    public Level getLevel() {
+        return Level.valueOf(level);
+    }
+
+    public void setLevel(Level level) {
+        this.level = level.name();
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Returns the message formatted as a single line of the job log
+     */
+    @Override
+    public String toString() {
+        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        return formatter.format(timestamp) + " - " + text;
+    }
+
+}
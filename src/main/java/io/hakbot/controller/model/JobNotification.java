@@ -0,0 +1,139 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.model;
+
+import javax.jdo.annotations.Column;
+import javax.jdo.annotations.IdGeneratorStrategy;
+import javax.jdo.annotations.Index;
+import javax.jdo.annotations.Indices;
+import javax.jdo.annotations.PersistenceCapable;
+import javax.jdo.annotations.Persistent;
+import javax.jdo.annotations.PrimaryKey;
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * A notification of a change of job state, waiting to be delivered to a callback URL of
+ * the job. Notifications are removed once delivered, or once delivery has been attempted
+ * the maximum number of times. The payload is kept with the notification, so it may be
+ * delivered after the job itself has been removed.
+ */
+@PersistenceCapable
+@Indices({
+        @Index(name="JOBNOTIFICATION_NEXTATTEMPT_IDX", members={"nextAttempt"}),
+        @Index(name="JOBNOTIFICATION_URL_IDX", members={"url"})
+})
+public class JobNotification implements Serializable {
+
+    private static final long serialVersionUID = -3017612259442187503L;
+
+    @PrimaryKey
+    @Persistent(valueStrategy=IdGeneratorStrategy.INCREMENT)
+    private long id;
+
+    @Persistent
+    @Column(name="JOB_ID", allowsNull="false")
+    private long jobid;
+
+    @Persistent
+    @Column(name="URL", jdbcType="VARCHAR", length=255, allowsNull="false")
+    private String url;
+
+    @Persistent
+    @Column(name="PAYLOAD", jdbcType="VARCHAR", length=1024, allowsNull="false")
+    private String payload;
+
+    @Persistent
+    @Column(name="ATTEMPTS", allowsNull="false")
+    private int attempts;
+
+    @Persistent
+    @Column(name="NEXT_ATTEMPT", jdbcType="TIMESTAMP", allowsNull="false")
+    private Date nextAttempt;
+
+    @Persistent
+    @Column(name="CREATED", jdbcType="TIMESTAMP", allowsNull="false")
+    private Date created;
+
+    public JobNotification() {
+    }
+
+    public JobNotification(Job job, String url, String payload) {
+        this.jobid = job.getId();
+        this.url = url;
+        this.payload = payload;
+        this.created = new Date();
+        this.nextAttempt = this.created;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getJobId() {
+        return jobid;
+    }
+
+    public void setJobId(long jobid) {
+        this.jobid = jobid;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Date getNextAttempt() {
+        return nextAttempt;
+    }
+
+    public void setNextAttempt(Date nextAttempt) {
+        this.nextAttempt = nextAttempt;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public void setCreated(Date created) {
+        this.created = created;
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.hakbot.controller.workers.State;
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * A lightweight, read-only view of a Job used for listings. Summaries are
+ * populated directly from a projection query and never include messages,
+ * payloads or results.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class JobSummary implements Serializable {
+
+    private static final long serialVersionUID = -2384018416637411284L;
+
+    private long id;
+    private String uuid;
+    private String name;
+    private String provider;
+    private String publisher;
+    private String state;
+    private Date created;
+    private Date started;
+    private Date completed;
+    private long apiKeyId;
+
+    @JsonIgnore
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public void setUuid(String uuid) {
+        this.uuid = uuid;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    public void setProvider(String provider) {
+        this.provider = provider;
+    }
+
+    public String getPublisher() {
+        return publisher;
+    }
+
+    public void setPublisher(String publisher) {
+        this.publisher = publisher;
+    }
+
+    public State getState() {
+        return State.parse(state);
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public void setCreated(Date created) {
+        this.created = created;
+    }
+
+    public Date getStarted() {
+        return started;
+    }
+
+    public void setStarted(Date started) {
+        this.started = started;
+    }
+
+    public Date getCompleted() {
+        return completed;
+    }
+
+    public void setCompleted(Date completed) {
+        this.completed = completed;
+    }
+
+    public Long getDuration() {
+        if (created != null && created.getTime() > 0 && completed != null && completed.getTime() > created.getTime()) {
+            return completed.getTime() - created.getTime();
+        }
+        return null;
+    }
+
+    public long getStartedByApiKeyId() {
+        return apiKeyId;
+    }
+
+    public void setApiKeyId(long apiKeyId) {
+        this.apiKeyId = apiKeyId;
+    }
+
+}
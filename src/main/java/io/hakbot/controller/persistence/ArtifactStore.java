@@ -0,0 +1,334 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.persistence;
+
+import alpine.Config;
+import alpine.logging.Logger;
+import io.hakbot.controller.model.JobArtifact;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * The ArtifactStore holds the contents of job artifacts as files in the data
+ * directory, addressed by the SHA-256 digest of their contents. Contents are
+ * written and read as streams, so the size of an artifact does not affect the
+ * amount of memory required to handle it. Identical contents are stored once.
+ *
+ * Contents committed by a writer are pinned until the artifact referencing them
+ * has been stored. Contents are only released while they are not pinned, and the
+ * check that no artifact references them is made under the same lock, so contents
+ * which are deduplicated by a writer are never removed before they are referenced.
+ *
+ * Artifacts created before the ArtifactStore was introduced, and small
+ * artifacts such as payloads, hold their contents in the database instead.
+ */
+public class ArtifactStore {
+
+    // Setup logging
+    private static final Logger logger = Logger.getLogger(ArtifactStore.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Holds an instance of ArtifactStore
+    private static final ArtifactStore instance = new ArtifactStore();
+
+    private final Path root;
+    private final Path incoming;
+
+    // Holds the number of pins of each digest committed but not yet referenced. Guarded by itself
+    private final Map<String, Integer> pins = new HashMap<>();
+
+    private ArtifactStore() {
+        String dataDirectory = Config.getInstance().getProperty(Config.AlpineKey.DATA_DIRECTORY);
+        if (dataDirectory.startsWith("~" + File.separator)) {
+            dataDirectory = System.getProperty("user.home") + dataDirectory.substring(1);
+        }
+        this.root = new File(dataDirectory, "artifacts").toPath().toAbsolutePath();
+        this.incoming = root.resolve("incoming");
+        try {
+            Files.createDirectories(incoming);
+        } catch (IOException e) {
+            logger.error("Unable to create artifact directory: " + incoming + ". " + e.getMessage());
+        }
+    }
+
+    /**
+     * Return an instance of the ArtifactStore instance
+     * @return an ArtifactStore instance
+     */
+    public static ArtifactStore getInstance() {
+        return instance;
+    }
+
+    /**
+     * Copies the specified stream into the store. The stream is not closed.
+     * @return the digest and size of the contents written
+     */
+    public Content write(InputStream in) throws IOException {
+        try (ContentWriter writer = newWriter()) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                writer.write(buffer, 0, read);
+            }
+            return writer.commit();
+        }
+    }
+
+    /**
+     * Returns a new writer for contents to be added to the store. The contents
+     * are added when the writer is committed, and discarded if the writer is
+     * closed without being committed.
+     */
+    public ContentWriter newWriter() throws IOException {
+        return new ContentWriter(Files.createTempFile(incoming, "artifact", ".tmp"));
+    }
+
+    /**
+     * Opens the contents having the specified digest for reading
+     */
+    public InputStream open(String digest) throws IOException {
+        return Files.newInputStream(getPath(digest));
+    }
+
+    /**
+     * Opens the contents having the specified digest as a channel. File channels
+     * may be transferred to other channels without copying through the heap.
+     */
+    public FileChannel openChannel(String digest) throws IOException {
+        return FileChannel.open(getPath(digest), StandardOpenOption.READ);
+    }
+
+    /**
+     * Opens the contents of the specified artifact for reading, regardless of
+     * whether the contents are held in the store or in the database.
+     */
+    public InputStream open(JobArtifact artifact) throws IOException {
+        if (artifact.getDigest() != null) {
+            return open(artifact.getDigest());
+        }
+        byte[] contents = artifact.getContents();
+        return new ByteArrayInputStream((contents == null) ? new byte[0] : contents);
+    }
+
+    /**
+     * Returns the SHA-256 digest of the contents of the specified artifact. The digest of
+     * artifacts held in the database is computed from their contents.
+     */
+    public String getDigest(JobArtifact artifact) {
+        if (artifact.getDigest() != null) {
+            return artifact.getDigest();
+        }
+        byte[] contents = artifact.getContents();
+        return toHex(newMessageDigest().digest((contents == null) ? new byte[0] : contents));
+    }
+
+    /**
+     * Returns the size in bytes of the contents of the specified artifact
+     */
+    public long getSize(JobArtifact artifact) {
+        if (artifact.getSize() != null) {
+            return artifact.getSize();
+        }
+        byte[] contents = artifact.getContents();
+        return (contents == null) ? 0 : contents.length;
+    }
+
+    /**
+     * Removes the contents having the specified digest, unless they are pinned or still
+     * referenced. The references are checked while holding the lock on the pins, so a
+     * writer cannot deduplicate the contents while they are being removed.
+     * @param referenced tells whether any artifact references the digest
+     * @return true if the contents were removed
+     */
+    public boolean release(String digest, Predicate<String> referenced) {
+        synchronized (pins) {
+            if (pins.containsKey(digest) || referenced.test(digest)) {
+                return false;
+            }
+            try {
+                Files.deleteIfExists(getPath(digest));
+            } catch (IOException e) {
+                logger.error("Unable to delete artifact contents: " + digest + ". " + e.getMessage());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Removes a pin placed by committing a writer. Called once the artifact referencing
+     * the contents has been stored, or has failed to be.
+     */
+    public void unpin(String digest) {
+        synchronized (pins) {
+            Integer count = pins.get(digest);
+            if (count == null || count <= 1) {
+                pins.remove(digest);
+            } else {
+                pins.put(digest, count - 1);
+            }
+        }
+    }
+
+    public boolean exists(String digest) {
+        return Files.exists(getPath(digest));
+    }
+
+    /**
+     * Returns the path to the contents having the specified digest. Contents are
+     * spread over subdirectories named after the first characters of the digest.
+     */
+    private Path getPath(String digest) {
+        if (digest == null || !digest.matches("[0-9a-f]{64}")) {
+            throw new IllegalArgumentException("Invalid digest: " + digest);
+        }
+        return root.resolve(digest.substring(0, 2)).resolve(digest.substring(2, 4)).resolve(digest);
+    }
+
+    private static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b: bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Identifies contents held in the store
+     */
+    public static class Content {
+        private final String digest;
+        private final long size;
+
+        Content(String digest, long size) {
+            this.digest = digest;
+            this.size = size;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * An OutputStream which writes contents to a temporary file while computing
+     * their digest. Committing the writer moves the file into the store.
+     */
+    public class ContentWriter extends OutputStream {
+        private final Path file;
+        private final MessageDigest messageDigest;
+        private final OutputStream out;
+        private long size;
+        private boolean closed;
+
+        private ContentWriter(Path file) throws IOException {
+            this.file = file;
+            this.messageDigest = newMessageDigest();
+            this.out = new DigestOutputStream(Files.newOutputStream(file), messageDigest);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            size++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            size += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * Adds the contents written to the store, pinned until they are referenced
+         * @return the digest and size of the contents
+         */
+        public Content commit() throws IOException {
+            if (closed) {
+                throw new IOException("The writer is closed");
+            }
+            out.close();
+            closed = true;
+            String digest = toHex(messageDigest.digest());
+            Path target = getPath(digest);
+            synchronized (pins) {
+                Files.createDirectories(target.getParent());
+                if (Files.exists(target)) {
+                    // Identical contents are already stored
+                    Files.deleteIfExists(file);
+                } else {
+                    try {
+                        Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (FileAlreadyExistsException e) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+                Integer count = pins.get(digest);
+                pins.put(digest, (count == null) ? 1 : count + 1);
+            }
+            return new Content(digest, size);
+        }
+
+        /**
+         * Discards the contents written, unless the writer was committed
+         */
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                try {
+                    out.close();
+                } finally {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+}
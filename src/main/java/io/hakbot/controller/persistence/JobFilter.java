@@ -0,0 +1,147 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.persistence;
+
+import io.hakbot.controller.model.JobSummary;
+import io.hakbot.controller.workers.State;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Defines the criteria and page of a job listing. Listings are ordered by the
+ * creation time of the jobs (newest first) and paged using a cursor derived from
+ * the last job of the previous page, rather than an offset, so that the cost of
+ * retrieving a page does not depend on its position.
+ */
+public class JobFilter {
+
+    private List<String> states = new ArrayList<>();
+    private String provider;
+    private String publisher;
+    private Date createdFrom;
+    private Date createdTo;
+    private Date afterCreated;
+    private long afterId;
+    private int limit;
+
+    /**
+     * Only includes jobs in the specified state. May be specified multiple times.
+     */
+    public JobFilter state(State state) {
+        this.states.add(state.getValue());
+        return this;
+    }
+
+    /**
+     * Only includes jobs using the specified provider class
+     */
+    public JobFilter provider(String provider) {
+        this.provider = provider;
+        return this;
+    }
+
+    /**
+     * Only includes jobs using the specified publisher class
+     */
+    public JobFilter publisher(String publisher) {
+        this.publisher = publisher;
+        return this;
+    }
+
+    /**
+     * Only includes jobs created at or after the specified time
+     */
+    public JobFilter createdFrom(Date createdFrom) {
+        this.createdFrom = createdFrom;
+        return this;
+    }
+
+    /**
+     * Only includes jobs created before the specified time
+     */
+    public JobFilter createdTo(Date createdTo) {
+        this.createdTo = createdTo;
+        return this;
+    }
+
+    /**
+     * Starts the listing after the job identified by the specified cursor
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    public JobFilter after(String cursor) {
+        String[] parts = cursor.split("\\.");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        try {
+            this.afterCreated = new Date(Long.parseLong(parts[0]));
+            this.afterId = Long.parseLong(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        return this;
+    }
+
+    /**
+     * Limits the number of jobs returned. Use 0 for no limit
+     */
+    public JobFilter limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Returns the cursor identifying the position of the specified job in a listing
+     */
+    public static String toCursor(JobSummary job) {
+        return job.getCreated().getTime() + "." + job.getId();
+    }
+
+    List<String> getStates() {
+        return states;
+    }
+
+    String getProvider() {
+        return provider;
+    }
+
+    String getPublisher() {
+        return publisher;
+    }
+
+    Date getCreatedFrom() {
+        return createdFrom;
+    }
+
+    Date getCreatedTo() {
+        return createdTo;
+    }
+
+    Date getAfterCreated() {
+        return afterCreated;
+    }
+
+    long getAfterId() {
+        return afterId;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+}
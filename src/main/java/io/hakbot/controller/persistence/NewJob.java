@@ -0,0 +1,68 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.persistence;
+
+import java.util.List;
+
+/**
+ * Describes a job to be created as part of a batch.
+ * @see QueryManager#createJobs(java.util.List, alpine.model.ApiKey)
+ */
+public class NewJob {
+
+    private final String name;
+    private final String provider;
+    private final String providerPayload;
+    private final String publisher;
+    private final String publisherPayload;
+    private final List<String> callbacks;
+
+    public NewJob(String name, String provider, String providerPayload, String publisher, String publisherPayload,
+                  List<String> callbacks) {
+        this.name = name;
+        this.provider = provider;
+        this.providerPayload = providerPayload;
+        this.publisher = publisher;
+        this.publisherPayload = publisherPayload;
+        this.callbacks = callbacks;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    public String getProviderPayload() {
+        return providerPayload;
+    }
+
+    public String getPublisher() {
+        return publisher;
+    }
+
+    public String getPublisherPayload() {
+        return publisherPayload;
+    }
+
+    public List<String> getCallbacks() {
+        return callbacks;
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.persistence;
+
+/**
+ * Accumulates the number of rows and bytes removed while pruning jobs.
+ */
+public class PruneResult {
+
+    private long jobs;
+    private long properties;
+    private long artifacts;
+    private long messages;
+    private long bytes;
+
+    void add(long jobs, long properties, long artifacts, long messages, long bytes) {
+        this.jobs += jobs;
+        this.properties += properties;
+        this.artifacts += artifacts;
+        this.messages += messages;
+        this.bytes += bytes;
+    }
+
+    public long getJobs() {
+        return jobs;
+    }
+
+    public long getProperties() {
+        return properties;
+    }
+
+    public long getArtifacts() {
+        return artifacts;
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    /**
+     * Returns the size of the artifact contents removed, whether held in the database or
+     * in the ArtifactStore. Contents still referenced by other jobs are not counted.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return jobs + " jobs, " + properties + " properties, " + artifacts + " artifacts, "
+                + messages + " messages and " + bytes + " bytes of artifact contents";
+    }
+
+}
@@ -24,7 +24,10 @@ import alpine.model.UserPrincipal;
 import alpine.persistence.AlpineQueryManager;
 import io.hakbot.controller.model.Job;
 import io.hakbot.controller.model.JobArtifact;
+import io.hakbot.controller.model.JobMessage;
+import io.hakbot.controller.model.JobNotification;
 import io.hakbot.controller.model.JobProperty;
+import io.hakbot.controller.model.JobSummary;
 import io.hakbot.controller.model.SystemAccount;
 import io.hakbot.controller.model.Team;
 import io.hakbot.controller.workers.State;
@@ -32,54 +35,136 @@ import org.apache.commons.lang3.StringUtils;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.jdo.Query;
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public class QueryManager extends AlpineQueryManager {
 
     private static final boolean ENFORCE_AUTHORIZATION = Config.getInstance().getPropertyAsBoolean(Config.AlpineKey.ENFORCE_AUTHORIZATION);
 
+    // The prefix of the keys of the job properties holding callback URLs
+    private static final String CALLBACK_PROPERTY_PREFIX = "hakbot.callback.";
+
     public enum OrderDirection {
         ASC, DESC
     }
 
-    @SuppressWarnings("unchecked")
     public List<Job> getJobs(OrderDirection order, Principal principal) {
-        Query query = pm.newQuery(Job.class);
-        query.setOrdering("created " + order.name());
-        List<Job> result = (List<Job>) query.execute();
-        return getPermissible(result, principal);
+        return getJobs(null, new HashMap<>(), order, principal);
     }
 
+    /**
+     * Returns summaries of the jobs matching the specified filter which the principal
+     * has permission to view, newest first. Both the criteria and the permission
+     * check are evaluated by the database.
+     */
     @SuppressWarnings("unchecked")
+    public List<JobSummary> getJobSummaries(JobFilter jobFilter, Principal principal) {
+        final StringBuilder filter = new StringBuilder();
+        final Map<String, Object> params = new HashMap<>();
+        if (!addPermissionFilter(filter, params, principal)) {
+            return new ArrayList<>();
+        }
+        if (!jobFilter.getStates().isEmpty()) {
+            appendFilter(filter, ":states.contains(state)");
+            params.put("states", jobFilter.getStates());
+        }
+        if (jobFilter.getProvider() != null) {
+            appendFilter(filter, "provider == :provider");
+            params.put("provider", jobFilter.getProvider());
+        }
+        if (jobFilter.getPublisher() != null) {
+            appendFilter(filter, "publisher == :publisher");
+            params.put("publisher", jobFilter.getPublisher());
+        }
+        if (jobFilter.getCreatedFrom() != null) {
+            appendFilter(filter, "created >= :createdFrom");
+            params.put("createdFrom", jobFilter.getCreatedFrom());
+        }
+        if (jobFilter.getCreatedTo() != null) {
+            appendFilter(filter, "created < :createdTo");
+            params.put("createdTo", jobFilter.getCreatedTo());
+        }
+        if (jobFilter.getAfterCreated() != null) {
+            appendFilter(filter, "(created < :afterCreated || (created == :afterCreated && id < :afterId))");
+            params.put("afterCreated", jobFilter.getAfterCreated());
+            params.put("afterId", jobFilter.getAfterId());
+        }
+        Query query = (filter.length() == 0) ? pm.newQuery(Job.class) : pm.newQuery(Job.class, filter.toString());
+        query.setResult("id, uuid, name, provider, publisher, state, created, started, completed, apiKeyId");
+        query.setResultClass(JobSummary.class);
+        query.setOrdering("created desc, id desc");
+        if (jobFilter.getLimit() > 0) {
+            query.setRange(0, jobFilter.getLimit());
+        }
+        return new ArrayList<>((List<JobSummary>) query.executeWithMap(params));
+    }
+
+    private static void appendFilter(StringBuilder filter, String condition) {
+        if (filter.length() > 0) {
+            filter.append(" && ");
+        }
+        filter.append(condition);
+    }
+
     public List<Job> getJobs(State state, OrderDirection order, Principal principal) {
-        Query query = pm.newQuery(Job.class, "state == :state");
-        query.setOrdering("created " + order.name());
-        List<Job> result = (List<Job>)query.execute(state.getValue());
-        return getPermissible(result, principal);
+        final Map<String, Object> params = new HashMap<>();
+        params.put("state", state.getValue());
+        return getJobs("state == :state", params, order, principal);
     }
 
-    @SuppressWarnings("unchecked")
     public List<Job> getJobs(String pluginClass, State state, OrderDirection order, Principal principal) {
-        Query query = pm.newQuery(Job.class, "providerClass == :pluginClass && state == :state");
-        query.setOrdering("created " + order.name());
-        List<Job> result = (List<Job>)query.execute(pluginClass, state.getValue());
-        return getPermissible(result, principal);
+        final Map<String, Object> params = new HashMap<>();
+        params.put("provider", pluginClass);
+        params.put("state", state.getValue());
+        return getJobs("provider == :provider && state == :state", params, order, principal);
     }
 
-    @SuppressWarnings("unchecked")
     public Job getJob(String uuid, Principal principal) {
-        Query query = pm.newQuery(Job.class, "uuid == :uuid");
-        List<Job> result = (List<Job>)query.execute(uuid);
-        List<Job> permissible = getPermissible(result, principal);
-        return permissible.size() == 0 ? null : permissible.get(0);
+        final Map<String, Object> params = new HashMap<>();
+        params.put("uuid", uuid);
+        List<Job> result = getJobs("uuid == :uuid", params, null, principal);
+        return result.size() == 0 ? null : result.get(0);
+    }
+
+    /**
+     * Returns the jobs matching the specified filter which the principal has permission to view.
+     * The permission check is added to the filter so it is evaluated by the database.
+     * @param jobFilter the JDOQL filter, or null to match all jobs
+     * @param params the values of the parameters of the filter. Permission parameters are added
+     * @param order the order of the jobs by creation time, or null if the order does not matter
+     */
+    @SuppressWarnings("unchecked")
+    private List<Job> getJobs(String jobFilter, Map<String, Object> params, OrderDirection order, Principal principal) {
+        final StringBuilder filter = new StringBuilder();
+        if (jobFilter != null) {
+            filter.append(jobFilter);
+        }
+        if (!addPermissionFilter(filter, params, principal)) {
+            return new ArrayList<>();
+        }
+        Query query = (filter.length() == 0) ? pm.newQuery(Job.class) : pm.newQuery(Job.class, filter.toString());
+        if (order != null) {
+            query.setOrdering("created " + order.name());
+        }
+        return new ArrayList<>((List<Job>) query.executeWithMap(params));
     }
 
-    public Job createJob(String name, String provider, String providerPayload, String publisher, String publisherPayload, ApiKey apiKey) {
+    public Job createJob(String name, String provider, String providerPayload, String publisher, String publisherPayload,
+                         List<String> callbacks, ApiKey apiKey) {
         pm.currentTransaction().begin();
         Job job = new Job();
         job.setName(name);
@@ -92,6 +177,7 @@ public class QueryManager extends AlpineQueryManager {
         }
         job.setUuid(UUID.randomUUID().toString());
         pm.makePersistent(job);
+        makeCallbacks(job, callbacks);
         pm.currentTransaction().commit();
         if (StringUtils.isNotBlank(providerPayload)) {
             setJobArtifact(job, JobArtifact.Type.PROVIDER_PAYLOAD, JobArtifact.MimeType.JSON.value(), providerPayload.getBytes(), null, null);
@@ -102,12 +188,65 @@ public class QueryManager extends AlpineQueryManager {
         return pm.getObjectById(Job.class, job.getId());
     }
 
+    /**
+     * Creates all of the jobs and their payloads in a single transaction. Admission of the
+     * jobs to the queue is the responsibility of the caller (see AdmissionController).
+     * @return the jobs created, in the order specified
+     */
+    public List<Job> createJobs(List<NewJob> newJobs, ApiKey apiKey) {
+        final Date created = new Date();
+        final List<Job> jobs = new ArrayList<>();
+        pm.currentTransaction().begin();
+        try {
+            for (NewJob newJob: newJobs) {
+                Job job = new Job();
+                job.setName(newJob.getName());
+                job.setProvider(newJob.getProvider());
+                job.setPublisher(newJob.getPublisher());
+                job.setCreated(created);
+                job.setState(State.CREATED);
+                if (apiKey != null) {
+                    job.setStartedByApiKeyId(apiKey.getId());
+                }
+                job.setUuid(UUID.randomUUID().toString());
+                pm.makePersistent(job);
+                makePayload(job, JobArtifact.Type.PROVIDER_PAYLOAD, newJob.getProviderPayload());
+                makePayload(job, JobArtifact.Type.PUBLISHER_PAYLOAD, newJob.getPublisherPayload());
+                makeCallbacks(job, newJob.getCallbacks());
+                jobs.add(job);
+            }
+            pm.currentTransaction().commit();
+        } finally {
+            if (pm.currentTransaction().isActive()) {
+                pm.currentTransaction().rollback();
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Persists a payload artifact of a job. Must be called within a transaction.
+     */
+    private void makePayload(Job job, JobArtifact.Type type, String payload) {
+        if (StringUtils.isBlank(payload)) {
+            return;
+        }
+        final byte[] contents = payload.getBytes();
+        JobArtifact artifact = new JobArtifact();
+        artifact.setUuid(UUID.randomUUID().toString());
+        artifact.setJobid(job.getId());
+        artifact.setType(type);
+        artifact.setMimetype(JobArtifact.MimeType.JSON.value());
+        artifact.setContents(contents);
+        artifact.setSize((long) contents.length);
+        pm.makePersistent(artifact);
+    }
+
     public Job updateJob(Job transientJob) {
         Job job = getJob(transientJob.getUuid(), new SystemAccount());
         pm.currentTransaction().begin();
         job.setCompleted(transientJob.getCompleted());
         job.setCreated(transientJob.getCreated());
-        job.setMessage(transientJob.getMessage());
         job.setName(transientJob.getName());
         job.setProvider(transientJob.getProvider());
         job.setPublisher(transientJob.getPublisher());
@@ -118,10 +257,78 @@ public class QueryManager extends AlpineQueryManager {
         return pm.getObjectById(Job.class, job.getId());
     }
 
-    public long getUnprocessedJobCount() {
-        Query query = pm.newQuery(Job.class, "state == :created || state == :unavailable || state == :inQueue || state == :inProgress");
-        query.setResult("count(id)");
-        return (Long)query.executeWithArray(State.CREATED.getValue(), State.UNAVAILABLE.getValue(), State.IN_QUEUE.getValue(), State.IN_PROGRESS.getValue());
+    /**
+     * Applies changes to each of the specified jobs in a single transaction.
+     * Jobs which no longer exist are skipped.
+     * @param uuids the UUIDs of the jobs to change
+     * @param updater applies the changes to a persistent job
+     * @return the jobs that were changed
+     */
+    public List<Job> updateJobs(Collection<String> uuids, Consumer<Job> updater) {
+        List<Job> updated = new ArrayList<>();
+        pm.currentTransaction().begin();
+        try {
+            for (String uuid: uuids) {
+                Job job = getObjectByUuid(Job.class, uuid);
+                if (job != null) {
+                    updater.accept(job);
+                    updated.add(job);
+                }
+            }
+            pm.currentTransaction().commit();
+        } finally {
+            if (pm.currentTransaction().isActive()) {
+                pm.currentTransaction().rollback();
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Returns the messages of the specified job having a sequence greater than the one specified,
+     * ordered by sequence.
+     * @param job the job to return messages for
+     * @param since only messages after this sequence are returned. Use 0 to return all messages
+     * @param limit the maximum number of messages to return. Use 0 for no limit
+     */
+    @SuppressWarnings("unchecked")
+    public List<JobMessage> getJobMessages(Job job, long since, int limit) {
+        Query query = pm.newQuery(JobMessage.class, "jobid == :jobid && sequence > :since");
+        query.setOrdering("sequence asc");
+        if (limit > 0) {
+            query.setRange(0, limit);
+        }
+        return (List<JobMessage>)query.execute(job.getId(), since);
+    }
+
+    /**
+     * Returns the sequence of the last message of the specified job, or 0 if the job has no messages
+     */
+    public long getLastJobMessageSequence(Job job) {
+        Query query = pm.newQuery(JobMessage.class, "jobid == :jobid");
+        query.setResult("max(sequence)");
+        Long sequence = (Long)query.execute(job.getId());
+        return (sequence == null) ? 0 : sequence;
+    }
+
+    /**
+     * Appends a message to the log of a job. If a transaction is active, the
+     * message is written when the transaction commits.
+     */
+    public void addJobMessage(JobMessage message) {
+        pm.makePersistent(message);
+    }
+
+    /**
+     * Returns the number of jobs of each provider in each state
+     * @return rows of provider (String), state (String) and count (Long)
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object[]> getJobCountsByProviderAndState() {
+        Query query = pm.newQuery(Job.class);
+        query.setResult("provider, state, count(id)");
+        query.setGrouping("provider, state");
+        return new ArrayList<>((List<Object[]>) query.execute());
     }
 
     @SuppressWarnings("unchecked")
@@ -130,14 +337,12 @@ public class QueryManager extends AlpineQueryManager {
         return (List<JobProperty>)query.execute(job.getId());
     }
 
+    @SuppressWarnings("unchecked")
     public JobProperty getJobProperty(Job job, String key) {
-        List<JobProperty> properties = getJobProperties(job);
-        for (JobProperty property: properties) {
-            if (property.getKey().equals(key)) {
-                return property;
-            }
-        }
-        return null;
+        Query query = pm.newQuery(JobProperty.class, "jobid == :jobid && key == :key");
+        query.setRange(0, 1);
+        List<JobProperty> result = (List<JobProperty>)query.execute(job.getId(), key);
+        return result.isEmpty() ? null : result.get(0);
     }
 
     public JobProperty setJobProperty(Job job, String key, Object value) {
@@ -156,23 +361,191 @@ public class QueryManager extends AlpineQueryManager {
         return property;
     }
 
+    /**
+     * Sets the specified properties of a job in a single transaction. Entries having
+     * a null key or value are ignored.
+     */
+    public void setJobProperties(Job job, Map<String, Object> properties) {
+        final Map<String, JobProperty> existing = new HashMap<>();
+        for (JobProperty property: getJobProperties(job)) {
+            existing.put(property.getKey(), property);
+        }
+        pm.currentTransaction().begin();
+        try {
+            for (Map.Entry<String, Object> entry: properties.entrySet()) {
+                if (entry.getKey() == null || entry.getValue() == null) {
+                    continue;
+                }
+                JobProperty property = existing.get(entry.getKey());
+                if (property == null) {
+                    pm.makePersistent(new JobProperty(job, entry.getKey(), entry.getValue().toString()));
+                } else {
+                    property.setValue(entry.getValue().toString());
+                }
+            }
+            pm.currentTransaction().commit();
+        } finally {
+            if (pm.currentTransaction().isActive()) {
+                pm.currentTransaction().rollback();
+            }
+        }
+    }
+
+    /**
+     * Persists the URLs notified when the job finishes as properties of the job. Must be called within a transaction.
+     */
+    private void makeCallbacks(Job job, List<String> callbacks) {
+        if (callbacks == null) {
+            return;
+        }
+        for (int i = 0; i < callbacks.size(); i++) {
+            pm.makePersistent(new JobProperty(job, CALLBACK_PROPERTY_PREFIX + i, callbacks.get(i)));
+        }
+    }
+
+    /**
+     * Returns the URLs notified when the job finishes, in the order specified when the job was created
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> getJobCallbacks(Job job) {
+        Query query = pm.newQuery(JobProperty.class, "jobid == :jobid && key.startsWith(:prefix)");
+        query.setOrdering("key asc");
+        final List<String> callbacks = new ArrayList<>();
+        for (JobProperty property: (List<JobProperty>) query.execute(job.getId(), CALLBACK_PROPERTY_PREFIX)) {
+            callbacks.add(property.getValue());
+        }
+        return callbacks;
+    }
+
+    /**
+     * Adds a notification for each callback URL of the job to the outbox. Must be called within
+     * a transaction, so that notifications are only stored with the change of state they describe.
+     * A notification to a URL which is being retried waits for the next attempt of that URL, so
+     * that notifications are not delivered ahead of those added before them.
+     * @return the number of notifications added
+     */
+    public int addJobNotifications(Job job, String payload) {
+        final List<String> callbacks = getJobCallbacks(job);
+        for (String url: callbacks) {
+            final JobNotification notification = new JobNotification(job, url, payload);
+            final Date nextAttempt = getNextJobNotificationAttempt(url);
+            if (nextAttempt != null && nextAttempt.after(notification.getNextAttempt())) {
+                notification.setNextAttempt(nextAttempt);
+            }
+            pm.makePersistent(notification);
+        }
+        return callbacks.size();
+    }
+
+    /**
+     * Returns the time of the next attempt to deliver notifications to the URL, or null if none are pending
+     */
+    @SuppressWarnings("unchecked")
+    private Date getNextJobNotificationAttempt(String url) {
+        final Query query = pm.newQuery(JobNotification.class, "url == :url");
+        query.setOrdering("nextAttempt desc");
+        query.setRange(0, 1);
+        final List<JobNotification> result = (List<JobNotification>) query.execute(url);
+        return result.isEmpty() ? null : result.get(0).getNextAttempt();
+    }
+
+    /**
+     * Returns the notifications due to be delivered, oldest first
+     */
+    @SuppressWarnings("unchecked")
+    public List<JobNotification> getDueJobNotifications(Date now, int max) {
+        Query query = pm.newQuery(JobNotification.class, "nextAttempt <= :now");
+        query.setOrdering("nextAttempt asc, id asc");
+        query.setRange(0, max);
+        return new ArrayList<>((List<JobNotification>) query.execute(now));
+    }
+
+    /**
+     * Removes notifications which have been delivered or will no longer be attempted
+     */
+    public void deleteJobNotifications(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        final Query query = pm.newQuery(JobNotification.class, ":ids.contains(id)");
+        query.deletePersistentAll(ids);
+    }
+
+    /**
+     * Records a failed attempt to deliver the oldest notification pending to a URL, and defers
+     * all notifications pending to the URL to the time of the next attempt, so they stay in order
+     * @param url the URL which failed
+     * @param headId the id of the oldest notification pending to the URL
+     * @param nextAttempt the time of the next attempt to deliver to the URL
+     */
+    @SuppressWarnings("unchecked")
+    public void rescheduleJobNotifications(String url, long headId, Date nextAttempt) {
+        pm.currentTransaction().begin();
+        try {
+            final Query query = pm.newQuery(JobNotification.class, "url == :url");
+            for (JobNotification notification: (List<JobNotification>) query.execute(url)) {
+                if (notification.getId() == headId) {
+                    notification.setAttempts(notification.getAttempts() + 1);
+                }
+                notification.setNextAttempt(nextAttempt);
+            }
+            pm.currentTransaction().commit();
+        } finally {
+            if (pm.currentTransaction().isActive()) {
+                pm.currentTransaction().rollback();
+            }
+        }
+    }
+
     @SuppressWarnings("unchecked")
     public List<JobArtifact> getJobArtifacts(Job job) {
         Query query = pm.newQuery(JobArtifact.class, "jobid == :jobid");
         return (List<JobArtifact>)query.execute(job.getId());
     }
 
+    /**
+     * Returns the artifact of the specified type. The contents of the artifact are
+     * not part of the default fetch group and are loaded when first accessed.
+     */
+    @SuppressWarnings("unchecked")
     public JobArtifact getJobArtifact(Job job, JobArtifact.Type type) {
-        List<JobArtifact> artifacts = getJobArtifacts(job);
-        for (JobArtifact artifact: artifacts) {
-            if (artifact.getType().equals(type.name())) {
-                return artifact;
+        Query query = pm.newQuery(JobArtifact.class, "jobid == :jobid && type == :type");
+        query.setRange(0, 1);
+        List<JobArtifact> result = (List<JobArtifact>)query.execute(job.getId(), type.name());
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    public JobArtifact setJobArtifact(@Nonnull Job job, @Nonnull JobArtifact.Type type, @Nonnull String mimeType, @Nonnull byte[] contents, @Nullable String uuid, @Nullable String filename) {
+        return setJobArtifact(job, type, mimeType, contents, null, (long) contents.length, uuid, filename);
+    }
+
+    /**
+     * Creates or updates an artifact whose contents are streamed into the ArtifactStore
+     * rather than held in the database. The stream is read fully but not closed.
+     */
+    public JobArtifact setJobArtifact(@Nonnull Job job, @Nonnull JobArtifact.Type type, @Nonnull String mimeType, @Nonnull InputStream contents, @Nullable String uuid, @Nullable String filename) throws IOException {
+        return setJobArtifact(job, type, mimeType, ArtifactStore.getInstance().write(contents), uuid, filename);
+    }
+
+    /**
+     * Creates or updates an artifact referencing contents already added to the ArtifactStore.
+     * The contents are unpinned once the artifact has been stored.
+     */
+    public JobArtifact setJobArtifact(@Nonnull Job job, @Nonnull JobArtifact.Type type, @Nonnull String mimeType, @Nonnull ArtifactStore.Content content, @Nullable String uuid, @Nullable String filename) {
+        boolean stored = false;
+        try {
+            final JobArtifact artifact = setJobArtifact(job, type, mimeType, new byte[0], content.getDigest(), content.getSize(), uuid, filename);
+            stored = true;
+            return artifact;
+        } finally {
+            ArtifactStore.getInstance().unpin(content.getDigest());
+            if (!stored) {
+                releaseContents(Collections.singleton(content.getDigest()));
             }
         }
-        return null;
     }
 
-    public JobArtifact setJobArtifact(@Nonnull Job job, @Nonnull JobArtifact.Type type, @Nonnull String mimeType, @Nonnull byte[] contents, @Nullable String uuid, @Nullable String filename) {
+    private JobArtifact setJobArtifact(Job job, JobArtifact.Type type, String mimeType, byte[] contents, String digest, long size, String uuid, String filename) {
         pm.currentTransaction().begin();
         JobArtifact artifact = null;
         boolean isNewObject = false;
@@ -185,58 +558,167 @@ public class QueryManager extends AlpineQueryManager {
             artifact = new JobArtifact();
             artifact.setUuid(UUID.randomUUID().toString());
         }
+        final String previousDigest = artifact.getDigest();
         artifact.setJobid(job.getId());
         artifact.setType(type);
         artifact.setMimetype(mimeType);
         artifact.setContents(contents);
+        artifact.setDigest(digest);
+        artifact.setSize(size);
         artifact.setFilename(filename);
         if (isNewObject) {
             pm.makePersistent(artifact);
         }
         pm.currentTransaction().commit();
+        if (previousDigest != null && !previousDigest.equals(digest)) {
+            releaseContents(Collections.singleton(previousDigest));
+        }
         return pm.getObjectById(JobArtifact.class, artifact.getId());
     }
 
-    @SuppressWarnings("unchecked")
-    public void deleteAllJobs(Principal principal) {
-        Query query = pm.newQuery(Job.class);
-        List<Job> result = (List<Job>) query.execute();
-        List<Job> permissible = getPermissible(result, principal);
+    /**
+     * Removes contents from the ArtifactStore which are no longer referenced by any artifact.
+     * Must be called after the transaction removing the references has been committed.
+     * @return the digests of the contents removed
+     */
+    private Set<String> releaseContents(Collection<String> digests) {
+        final Set<String> released = new HashSet<>();
+        final Predicate<String> referenced = new Predicate<String>() {
+            public boolean test(String digest) {
+                Query query = pm.newQuery(JobArtifact.class, "digest == :digest");
+                query.setResult("count(id)");
+                return (Long) query.execute(digest) > 0;
+            }
+        };
+        for (String digest: digests) {
+            if (ArtifactStore.getInstance().release(digest, referenced)) {
+                released.add(digest);
+            }
+        }
+        return released;
+    }
+
+    public List<JobSummary> deleteAllJobs(Principal principal) {
+        return deleteJobs(getJobs(null, new HashMap<>(), null, principal));
+    }
+
+    public List<JobSummary> deleteJob(String uuid, Principal principal) {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("uuid", uuid);
+        return deleteJobs(getJobs("uuid == :uuid", params, null, principal));
+    }
+
+    public List<JobSummary> deleteJobs(State state, Principal principal) {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("state", state.getValue());
+        return deleteJobs(getJobs("state == :state", params, null, principal));
+    }
+
+    /**
+     * Deletes the jobs and their dependents
+     * @return summaries of the jobs deleted, holding their uuid, provider and state
+     */
+    private List<JobSummary> deleteJobs(List<Job> permissible) {
+        final Set<String> digests = new HashSet<>();
+        final List<JobSummary> deleted = new ArrayList<>();
         pm.currentTransaction().begin();
         for (Job job: permissible) {
-            List<JobProperty> properties = getJobProperties(job);
-            pm.deletePersistentAll(properties);
+            JobSummary summary = new JobSummary();
+            summary.setUuid(job.getUuid());
+            summary.setProvider(job.getProvider());
+            summary.setState(job.getState().getValue());
+            deleted.add(summary);
+            deleteJobDependents(job, digests);
         }
         pm.deletePersistentAll(permissible);
         pm.currentTransaction().commit();
+        releaseContents(digests);
+        return deleted;
+    }
+
+    /**
+     * Returns the ids of up to the specified number of jobs which are no longer queued or
+     * running and whose last activity (completion, start or creation) is before the cutoff.
+     * The jobs themselves are not loaded.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Long> getExpiredJobIds(Date cutoff, int max) {
+        final Query query = pm.newQuery(Job.class,
+                "state != :created && state != :inQueue && state != :inProgress && "
+                + "((completed != null && completed < :cutoff) "
+                + "|| (completed == null && started != null && started < :cutoff) "
+                + "|| (completed == null && started == null && created < :cutoff))");
+        query.setResult("id");
+        query.setOrdering("id asc");
+        query.setRange(0, max);
+        final Map<String, Object> params = new HashMap<>();
+        params.put("created", State.CREATED.getValue());
+        params.put("inQueue", State.IN_QUEUE.getValue());
+        params.put("inProgress", State.IN_PROGRESS.getValue());
+        params.put("cutoff", cutoff);
+        return new ArrayList<>((List<Long>) query.executeWithMap(params));
     }
 
+    /**
+     * Deletes the specified jobs along with their properties, artifacts and messages using
+     * set-based deletes in a single transaction, releasing contents of the ArtifactStore which
+     * are no longer referenced. Intended for bounded batches of ids from {@link #getExpiredJobIds}.
+     * No access control is applied. The rows and bytes removed are added to the result.
+     */
     @SuppressWarnings("unchecked")
-    public void deleteJob(String uuid, Principal principal) {
-        Query query = pm.newQuery(Job.class, "uuid == :uuid");
-        List<Job> result = (List<Job>) query.execute(uuid);
-        List<Job> permissible = getPermissible(result, principal);
+    public void pruneJobs(List<Long> ids, PruneResult result) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        final Query artifactQuery = pm.newQuery(JobArtifact.class, ":ids.contains(jobid)");
+        artifactQuery.setResult("digest, size");
+        final Map<String, Long> digests = new HashMap<>();
+        long bytes = 0;
+        for (Object[] row: (List<Object[]>) artifactQuery.execute(ids)) {
+            final String digest = (String) row[0];
+            final long size = (row[1] == null) ? 0 : (Long) row[1];
+            if (digest != null) {
+                digests.put(digest, size);
+            } else {
+                bytes += size;
+            }
+        }
+        final long properties, artifacts, messages, jobs;
         pm.currentTransaction().begin();
-        for (Job job: permissible) {
-            List<JobProperty> properties = getJobProperties(job);
-            pm.deletePersistentAll(properties);
+        try {
+            properties = pm.newQuery(JobProperty.class, ":ids.contains(jobid)").deletePersistentAll(ids);
+            artifacts = pm.newQuery(JobArtifact.class, ":ids.contains(jobid)").deletePersistentAll(ids);
+            messages = pm.newQuery(JobMessage.class, ":ids.contains(jobid)").deletePersistentAll(ids);
+            jobs = pm.newQuery(Job.class, ":ids.contains(id)").deletePersistentAll(ids);
+            pm.currentTransaction().commit();
+        } finally {
+            if (pm.currentTransaction().isActive()) {
+                pm.currentTransaction().rollback();
+            }
         }
-        pm.deletePersistentAll(permissible);
-        pm.currentTransaction().commit();
+        for (String digest: releaseContents(digests.keySet())) {
+            bytes += digests.get(digest);
+        }
+        result.add(jobs, properties, artifacts, messages, bytes);
     }
 
+    /**
+     * Deletes the properties, artifacts and messages of a job. Must be called within a transaction.
+     * The digests of artifacts held in the ArtifactStore are added to the specified set so the
+     * contents can be released once the transaction has been committed.
+     */
     @SuppressWarnings("unchecked")
-    public void deleteJobs(State state, Principal principal) {
-        Query query = pm.newQuery(Job.class, "state == :state");
-        List<Job> result = (List<Job>) query.execute(state.getValue());
-        List<Job> permissible = getPermissible(result, principal);
-        pm.currentTransaction().begin();
-        for (Job job: permissible) {
-            List<JobProperty> properties = getJobProperties(job);
-            pm.deletePersistentAll(properties);
+    private void deleteJobDependents(Job job, Set<String> digests) {
+        pm.deletePersistentAll(getJobProperties(job));
+        final List<JobArtifact> artifacts = getJobArtifacts(job);
+        for (JobArtifact artifact: artifacts) {
+            if (artifact.getDigest() != null) {
+                digests.add(artifact.getDigest());
+            }
         }
-        pm.deletePersistentAll(permissible);
-        pm.currentTransaction().commit();
+        pm.deletePersistentAll(artifacts);
+        Query query = pm.newQuery(JobMessage.class, "jobid == :jobid");
+        query.deletePersistentAll(job.getId());
     }
 
     @Override
@@ -339,14 +821,57 @@ public class QueryManager extends AlpineQueryManager {
         return false;
     }
 
-    private List<Job> getPermissible(List<Job> result, Principal principal) {
-        List<Job> permissible = new ArrayList<>();
-        for (Job job: result) {
-            if (hasPermission(job, principal)) {
-                permissible.add(job);
-            }
+    /**
+     * Adds the condition restricting jobs to those the principal has permission to view.
+     * Nothing is added if the principal may view all jobs.
+     * @return false if the principal may not view any job
+     */
+    private boolean addPermissionFilter(StringBuilder filter, Map<String, Object> params, Principal principal) {
+        final Set<Long> apiKeyIds = getPermittedApiKeyIds(principal);
+        if (apiKeyIds == null) {
+            return true;
+        } else if (apiKeyIds.isEmpty()) {
+            return false;
         }
-        return permissible;
+        appendFilter(filter, ":apiKeyIds.contains(apiKeyId)");
+        params.put("apiKeyIds", apiKeyIds);
+        return true;
+    }
+
+    /**
+     * Returns the IDs of the API keys whose jobs the principal has permission to view,
+     * or null if the principal may view all jobs. Users may view the jobs started by
+     * API keys of the teams they are a member of, or all jobs if a member of a hakmaster team.
+     */
+    public Set<Long> getPermittedApiKeyIds(Principal principal) {
+        if (!ENFORCE_AUTHORIZATION || principal instanceof SystemAccount) {
+            return null;
+        }
+        final Set<Long> apiKeyIds = new HashSet<>();
+        if (principal instanceof ApiKey) {
+            apiKeyIds.add(((ApiKey) principal).getId());
+        } else if (principal instanceof LdapUser) {
+            return getPermittedApiKeyIds((LdapUser) principal);
+        }
+        return apiKeyIds;
+    }
+
+    /**
+     * Resolves the API keys shared with the user through team membership using joins
+     * over the team tables, rather than loading each team of the user and of each key.
+     */
+    @SuppressWarnings("unchecked")
+    private Set<Long> getPermittedApiKeyIds(LdapUser ldapUser) {
+        Query query = pm.newQuery(Team.class, "hakmaster == true && ldapUsers.contains(user) && user.id == :userId");
+        query.declareVariables("alpine.model.LdapUser user");
+        query.setResult("count(id)");
+        if ((Long) query.execute(ldapUser.getId()) > 0) {
+            return null;
+        }
+        query = pm.newQuery(Team.class, "ldapUsers.contains(user) && user.id == :userId && apiKeys.contains(key)");
+        query.declareVariables("alpine.model.LdapUser user; alpine.model.ApiKey key");
+        query.setResult("distinct key.id");
+        return new HashSet<>((Collection<Long>) query.execute(ldapUser.getId()));
     }
 
     public boolean hasPermission(Job job, Principal principal) {
@@ -369,24 +894,9 @@ public class QueryManager extends AlpineQueryManager {
         return job.getStartedByApiKeyId() == apiKey.getId();
     }
 
-    @SuppressWarnings("unchecked")
     private boolean hasPermission(Job job, LdapUser ldapUser) {
-        ApiKey apiKey = pm.getObjectById(ApiKey.class, job.getStartedByApiKeyId());
-        ArrayList<Long> list = new ArrayList<>();
-        for (alpine.model.Team alpineTeam: apiKey.getTeams()) {
-            Team team = getObjectById(Team.class, alpineTeam.getId());
-            list.add(team.getId());
-        }
-        for (alpine.model.Team alpineTeam: ldapUser.getTeams()) {
-            Team team = getObjectById(Team.class, alpineTeam.getId());
-            if (team.isHakmaster()) {
-                return true;
-            }
-            if (list.contains(team.getId())) {
-                return true;
-            }
-        }
-        return false;
+        final Set<Long> apiKeyIds = getPermittedApiKeyIds(ldapUser);
+        return apiKeyIds == null || apiKeyIds.contains(job.getStartedByApiKeyId());
     }
 
     public boolean isHakMaster(UserPrincipal principal) {
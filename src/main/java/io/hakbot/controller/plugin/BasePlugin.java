@@ -17,19 +17,35 @@
 package io.hakbot.controller.plugin;
 
 import alpine.event.framework.EventService;
+import alpine.logging.Logger;
 import io.hakbot.controller.event.JobUpdateEvent;
 import io.hakbot.controller.model.Job;
 import io.hakbot.controller.model.JobArtifact;
 import io.hakbot.controller.model.JobProperty;
+import io.hakbot.controller.persistence.ArtifactStore;
 import io.hakbot.controller.persistence.QueryManager;
 import io.hakbot.controller.workers.State;
+import io.hakbot.util.JsonUtil;
 import org.apache.commons.lang3.SerializationUtils;
 import org.apache.commons.lang3.StringUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public abstract class BasePlugin {
 
+    // Setup logging
+    private static final Logger logger = Logger.getLogger(BasePlugin.class);
+
+    private static final String REMOTE_INSTANCE_PROPERTY = "remoteInstance";
+
+    private final Map<Long, Map<String, String>> propertyCache = new HashMap<>();
+    private final Map<Long, RemoteInstance> remoteInstanceCache = new HashMap<>();
+
     /**
      * Adds a processing message to the job (asynchronously).
      */
@@ -52,17 +68,13 @@ public abstract class BasePlugin {
     }
 
     /**
-     * Returns the value for the specified job property key
+     * Returns the value for the specified job property key. The properties of a job
+     * are loaded once, on first access, and cached for the lifetime of the plugin
+     * instance, which is created for each invocation of the plugin.
      */
-    protected String getJobProperty(Job job, String key) {
-        QueryManager qm = new QueryManager();
-        JobProperty prop = qm.getJobProperty(job, key);
-        qm.close();
-        if (prop == null || prop.getValue() == null || StringUtils.isBlank(prop.getValue())) {
-            return null;
-        } else {
-            return prop.getValue();
-        }
+    protected synchronized String getJobProperty(Job job, String key) {
+        String value = getCachedJobProperties(job).get(key);
+        return StringUtils.isBlank(value) ? null : value;
     }
 
     /**
@@ -83,23 +95,37 @@ public abstract class BasePlugin {
         if (key == null || value == null) {
             return;
         }
-        QueryManager qm = new QueryManager();
-        qm.setJobProperty(job, key, value);
-        qm.close();
+        setJobProperties(job, Collections.singletonMap(key, value));
     }
 
     /**
-     * Sets values for the specified job property keys. Accepts null
-     * values, but does not save them, thus failing gracefully.
+     * Sets values for the specified job property keys in a single transaction.
+     * Accepts null values, but does not save them, thus failing gracefully.
      */
     protected void setJobProperties(Job job, Map<String, Object> properties) {
         QueryManager qm = new QueryManager();
-        for (Map.Entry<String, Object> entry : properties.entrySet()) {
-            if (entry.getKey() != null && entry.getValue() != null) {
-                qm.setJobProperty(job, entry.getKey(), entry.getValue());
+        qm.setJobProperties(job, properties);
+        qm.close();
+        synchronized (this) {
+            Map<String, String> cached = getCachedJobProperties(job);
+            for (Map.Entry<String, Object> entry : properties.entrySet()) {
+                if (entry.getKey() != null && entry.getValue() != null) {
+                    cached.put(entry.getKey(), entry.getValue().toString());
+                }
             }
         }
-        qm.close();
+    }
+
+    private synchronized Map<String, String> getCachedJobProperties(Job job) {
+        Map<String, String> cached = propertyCache.get(job.getId());
+        if (cached == null) {
+            cached = new HashMap<>();
+            for (JobProperty property: getJobProperties(job)) {
+                cached.put(property.getKey(), property.getValue());
+            }
+            propertyCache.put(job.getId(), cached);
+        }
+        return cached;
     }
 
     protected JobArtifact addArtifact(Job job, JobArtifact.Type type, String mimeType, byte[] contents, String filename) {
@@ -109,25 +135,94 @@ public abstract class BasePlugin {
         return artifact;
     }
 
+    /**
+     * Adds an artifact whose contents are streamed into the ArtifactStore. This should be
+     * preferred over the byte[] variant for results, which may be arbitrarily large.
+     * The stream is read fully but not closed.
+     */
+    protected JobArtifact addArtifact(Job job, JobArtifact.Type type, String mimeType, InputStream contents, String filename) throws IOException {
+        QueryManager qm = new QueryManager();
+        try {
+            return qm.setJobArtifact(job, type, mimeType, contents, null, filename);
+        } finally {
+            qm.close();
+        }
+    }
+
+    /**
+     * Adds an artifact referencing contents already written to the ArtifactStore, such
+     * as contents transformed while being written with an {@link ArtifactStore.ContentWriter}.
+     */
+    protected JobArtifact addArtifact(Job job, JobArtifact.Type type, String mimeType, ArtifactStore.Content content, String filename) {
+        QueryManager qm = new QueryManager();
+        try {
+            return qm.setJobArtifact(job, type, mimeType, content, null, filename);
+        } finally {
+            qm.close();
+        }
+    }
+
     protected JobArtifact getArtifact(Job job, JobArtifact.Type type) {
         QueryManager qm = new QueryManager();
         JobArtifact artifact = qm.getJobArtifact(job, type);
-        byte[] contents = artifact.getContents(); // Force this blob to be loaded when qm is still open
+        if (artifact != null) {
+            byte[] contents = artifact.getContents(); // Force this blob to be loaded when qm is still open
+        }
         qm.close();
         return artifact;
     }
 
-    protected RemoteInstance getRemoteInstance(Job job) {
-        JobArtifact artifact = getArtifact(job, JobArtifact.Type.REMOTE_INSTANCE);
-        byte[] content = artifact.getContents();
-        return (RemoteInstance)SerializationUtils.deserialize(content);
+    /**
+     * Opens the contents of the specified artifact for reading. The caller is responsible for closing the stream.
+     */
+    protected InputStream openArtifact(JobArtifact artifact) throws IOException {
+        return ArtifactStore.getInstance().open(artifact);
     }
 
-    protected void setRemoteInstance(Job job, RemoteInstance remoteInstance) {
-        byte[] content = SerializationUtils.serialize(remoteInstance);
-        QueryManager qm = new QueryManager();
-        qm.setJobArtifact(job, JobArtifact.Type.REMOTE_INSTANCE, JobArtifact.MimeType.OBJECT.value(), content, null, null);
-        qm.close();
+    /**
+     * Returns the remote instance assigned to the job. Configured instances are
+     * resolved by id against the RemoteInstanceRegistry. Instances supplied in the
+     * payload of a job are stored with the job as json. Jobs created by earlier
+     * versions hold a serialized copy of the instance.
+     */
+    protected synchronized RemoteInstance getRemoteInstance(Job job) {
+        if (remoteInstanceCache.containsKey(job.getId())) {
+            return remoteInstanceCache.get(job.getId());
+        }
+        RemoteInstance remoteInstance = null;
+        String id = getJobProperty(job, REMOTE_INSTANCE_PROPERTY);
+        if (id != null) {
+            remoteInstance = RemoteInstanceRegistry.getInstance().getById(id);
+            if (remoteInstance == null) {
+                logger.warn("The remote instance " + id + " assigned to job " + job.getUuid() + " is no longer configured");
+            }
+        } else {
+            JobArtifact artifact = getArtifact(job, JobArtifact.Type.REMOTE_INSTANCE);
+            if (artifact != null && JobArtifact.MimeType.JSON.value().equals(artifact.getMimetype())) {
+                remoteInstance = RemoteInstance.fromJson(JsonUtil.toJsonObject(artifact.getContents()));
+            } else if (artifact != null) {
+                remoteInstance = (RemoteInstance)SerializationUtils.deserialize(artifact.getContents());
+            }
+        }
+        remoteInstanceCache.put(job.getId(), remoteInstance);
+        return remoteInstance;
+    }
+
+    protected synchronized void setRemoteInstance(Job job, RemoteInstance remoteInstance) {
+        if (remoteInstance.getId() != null && RemoteInstanceRegistry.getInstance().getById(remoteInstance.getId()) != null) {
+            setJobProperty(job, REMOTE_INSTANCE_PROPERTY, remoteInstance.getId());
+        } else {
+            byte[] content = remoteInstance.toJson().toString().getBytes(StandardCharsets.UTF_8);
+            // Replace the remote instance previously assigned, if any
+            JobArtifact existing = getArtifact(job, JobArtifact.Type.REMOTE_INSTANCE);
+            QueryManager qm = new QueryManager();
+            qm.setJobArtifact(job, JobArtifact.Type.REMOTE_INSTANCE, JobArtifact.MimeType.JSON.value(), content, (existing == null) ? null : existing.getUuid(), null);
+            qm.close();
+            if (getJobProperty(job, REMOTE_INSTANCE_PROPERTY) != null) {
+                setJobProperty(job, REMOTE_INSTANCE_PROPERTY, "");
+            }
+        }
+        remoteInstanceCache.put(job.getId(), remoteInstance);
     }
 
     protected JobArtifact getProviderPayload(Job job) {
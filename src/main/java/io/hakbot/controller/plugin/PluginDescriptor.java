@@ -0,0 +1,113 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.plugin;
+
+import io.hakbot.providers.AsynchronousProvider;
+import io.hakbot.providers.BatchAsynchronousProvider;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.function.Supplier;
+
+/**
+ * A PluginDescriptor describes an enabled plugin and acts as a factory for new
+ * instances of it. The constructors of the plugin and its console (if any) are
+ * resolved once, as is the metadata of the plugin.
+ *
+ * @see PluginRegistry
+ */
+public class PluginDescriptor<T extends Plugin> implements Supplier<T> {
+
+    private final Plugin.Type type;
+    private final Class<? extends T> pluginClass;
+    private final Constructor<? extends T> constructor;
+    private final Constructor<? extends Console> consoleConstructor;
+    private final boolean asynchronous;
+    private final boolean batch;
+    private final PluginMetadata metadata;
+
+    PluginDescriptor(Plugin.Type type, Class<? extends T> pluginClass) throws NoSuchMethodException {
+        this.type = type;
+        this.pluginClass = pluginClass;
+        this.constructor = pluginClass.getConstructor();
+        this.asynchronous = AsynchronousProvider.class.isAssignableFrom(pluginClass);
+        this.batch = BatchAsynchronousProvider.class.isAssignableFrom(pluginClass);
+        T plugin = get();
+        this.metadata = new PluginMetadata(plugin);
+        if (plugin instanceof ConsoleIdentifier) {
+            this.consoleConstructor = ((ConsoleIdentifier) plugin).getConsoleClass().getConstructor();
+        } else {
+            this.consoleConstructor = null;
+        }
+    }
+
+    /**
+     * Returns a new instance of the plugin
+     */
+    public T get() {
+        return newInstance(constructor);
+    }
+
+    /**
+     * Returns a new instance of the console of the plugin, or null if the plugin does not have a console
+     */
+    public Console getConsole() {
+        return (consoleConstructor == null) ? null : newInstance(consoleConstructor);
+    }
+
+    public Plugin.Type getType() {
+        return type;
+    }
+
+    public Class<? extends T> getPluginClass() {
+        return pluginClass;
+    }
+
+    public String getClassName() {
+        return pluginClass.getName();
+    }
+
+    /**
+     * Returns true if the plugin is an AsynchronousProvider
+     */
+    public boolean isAsynchronous() {
+        return asynchronous;
+    }
+
+    /**
+     * Returns true if the plugin is a BatchAsynchronousProvider
+     */
+    public boolean isBatch() {
+        return batch;
+    }
+
+    public boolean hasConsole() {
+        return consoleConstructor != null;
+    }
+
+    public PluginMetadata getMetadata() {
+        return metadata;
+    }
+
+    private static <C> C newInstance(Constructor<? extends C> constructor) {
+        try {
+            return constructor.newInstance();
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Unable to instantiate " + constructor.getDeclaringClass().getName(), e);
+        }
+    }
+
+}
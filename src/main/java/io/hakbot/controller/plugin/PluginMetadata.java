@@ -16,50 +16,40 @@
  */
 package io.hakbot.controller.plugin;
 
-import alpine.logging.Logger;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 
 @JsonInclude(JsonInclude.Include.NON_NULL)
 public class PluginMetadata {
 
-    // Setup logger
-    private static final Logger logger = Logger.getLogger(PluginMetadata.class);
+    private final String name;
+    private final String description;
+    private final String classname;
+    private final boolean console;
 
-    private Plugin plugin;
-
-    public PluginMetadata(Class clazz) {
-        init(clazz);
-    }
-
-    private void init(Class clazz) {
-        try {
-            @SuppressWarnings("unchecked")
-            Constructor<?> constructor = clazz.getConstructor();
-            this.plugin = (Plugin) constructor.newInstance();
-        } catch (NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException e) {
-            logger.error(e.getMessage());
-        }
+    public PluginMetadata(Plugin plugin) {
+        this.name = plugin.getName();
+        this.description = plugin.getDescription();
+        this.classname = plugin.getClass().getCanonicalName();
+        this.console = ConsoleIdentifier.class.isAssignableFrom(plugin.getClass());
     }
 
     public String getName() {
-        return plugin.getName();
+        return name;
     }
 
     public String getDescription() {
-        return plugin.getDescription();
+        return description;
     }
 
     @JsonProperty(value = "class")
     public String getClassname() {
-        return plugin.getClass().getCanonicalName();
+        return classname;
     }
 
     @JsonProperty(value = "console")
     public boolean hasConsole() {
-        return ConsoleIdentifier.class.isAssignableFrom(plugin.getClass());
+        return console;
     }
 
 }
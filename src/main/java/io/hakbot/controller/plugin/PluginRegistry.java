@@ -0,0 +1,112 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.plugin;
+
+import alpine.Config;
+import alpine.logging.Logger;
+import io.hakbot.HakbotConfigKey;
+import io.hakbot.providers.Provider;
+import io.hakbot.publishers.Publisher;
+import org.apache.commons.lang3.StringUtils;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The PluginRegistry holds a descriptor for each provider and publisher enabled
+ * in application.properties. The registry is built once and is immutable, so it
+ * may be used by any thread without synchronization. Plugins which are not
+ * enabled, or which cannot be loaded, are not registered.
+ */
+public class PluginRegistry {
+
+    // Setup logging
+    private static final Logger logger = Logger.getLogger(PluginRegistry.class);
+
+    // Holds an instance of PluginRegistry
+    private static final PluginRegistry instance = new PluginRegistry();
+
+    private final Map<String, PluginDescriptor<Provider>> providers;
+    private final Map<String, PluginDescriptor<Publisher>> publishers;
+
+    private PluginRegistry() {
+        logger.info("Initializing plugin registry");
+        this.providers = register(Plugin.Type.PROVIDER, Provider.class, HakbotConfigKey.PROVIDERS_ENABLED);
+        this.publishers = register(Plugin.Type.PUBLISHER, Publisher.class, HakbotConfigKey.PUBLISHERS_ENABLED);
+    }
+
+    /**
+     * Return an instance of the PluginRegistry instance
+     * @return a PluginRegistry instance
+     */
+    public static PluginRegistry getInstance() {
+        return instance;
+    }
+
+    private <T extends Plugin> Map<String, PluginDescriptor<T>> register(Plugin.Type type, Class<T> expected, HakbotConfigKey key) {
+        Map<String, PluginDescriptor<T>> map = new LinkedHashMap<>();
+        String[] classNames = StringUtils.split(Config.getInstance().getProperty(key), ",");
+        if (classNames != null) {
+            for (String className : classNames) {
+                className = className.trim();
+                try {
+                    Class<?> clazz = Class.forName(className, true, this.getClass().getClassLoader());
+                    if (!expected.isAssignableFrom(clazz)) {
+                        logger.error(className + " is not a " + type.name().toLowerCase());
+                        continue;
+                    }
+                    map.put(className, new PluginDescriptor<T>(type, clazz.asSubclass(expected)));
+                } catch (ClassNotFoundException | NoSuchMethodException | RuntimeException e) {
+                    logger.error("Cannot resolve " + className + ". " + e.getMessage());
+                }
+            }
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Returns the descriptor of the specified provider, or null if the provider is not enabled
+     */
+    public PluginDescriptor<Provider> getProvider(String className) {
+        return (className == null) ? null : providers.get(className);
+    }
+
+    /**
+     * Returns the descriptor of the specified publisher, or null if the publisher is not enabled
+     */
+    public PluginDescriptor<Publisher> getPublisher(String className) {
+        return (className == null) ? null : publishers.get(className);
+    }
+
+    public List<PluginDescriptor<Provider>> getProviders() {
+        return new ArrayList<>(providers.values());
+    }
+
+    public List<PluginDescriptor<Publisher>> getPublishers() {
+        return new ArrayList<>(publishers.values());
+    }
+
+    /**
+     * Determines if the specified class is an enabled provider or publisher
+     */
+    public boolean isEnabled(String className) {
+        return providers.containsKey(className) || publishers.containsKey(className);
+    }
+
+}
@@ -17,6 +17,10 @@
 package io.hakbot.controller.plugin;
 
 import alpine.logging.Logger;
+import io.hakbot.util.JsonUtil;
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
 import java.io.Serializable;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -28,6 +32,7 @@ public class RemoteInstance implements Serializable {
     // Setup logging
     private static final Logger logger = Logger.getLogger(RemoteInstance.class);
 
+    private String id;
     private String alias;
     private URL url;
     private String username;
@@ -35,6 +40,19 @@ public class RemoteInstance implements Serializable {
     private String apiKey;
     private String token;
     private boolean validateCertificates;
+    private int concurrency = 1;
+
+    /**
+     * Returns the identifier of an instance defined in the configuration, or null
+     * for an instance supplied in the payload of a job.
+     */
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
 
     public String getAlias() {
         return alias;
@@ -103,4 +121,54 @@ public class RemoteInstance implements Serializable {
     public void setValidateCertificates(boolean validateCertificates) {
         this.validateCertificates = validateCertificates;
     }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Returns a compact json representation of the instance, used to store instances
+     * supplied in the payload of a job.
+     */
+    public JsonObject toJson() {
+        JsonObjectBuilder builder = Json.createObjectBuilder();
+        add(builder, "alias", alias);
+        add(builder, "url", (url == null) ? null : url.toExternalForm());
+        add(builder, "username", username);
+        add(builder, "password", password);
+        add(builder, "apiKey", apiKey);
+        add(builder, "token", token);
+        builder.add("validateCertificates", validateCertificates);
+        builder.add("concurrency", concurrency);
+        return builder.build();
+    }
+
+    /**
+     * Creates an instance from the json representation returned by {@link #toJson()}
+     */
+    public static RemoteInstance fromJson(JsonObject json) {
+        RemoteInstance instance = new RemoteInstance();
+        instance.setAlias(JsonUtil.getString(json, "alias"));
+        String url = JsonUtil.getString(json, "url");
+        if (url != null) {
+            instance.setUrl(url);
+        }
+        instance.setUsername(JsonUtil.getString(json, "username"));
+        instance.setPassword(JsonUtil.getString(json, "password"));
+        instance.setApiKey(JsonUtil.getString(json, "apiKey"));
+        instance.setToken(JsonUtil.getString(json, "token"));
+        instance.setValidateCertificates(JsonUtil.getBoolean(json, "validateCertificates"));
+        instance.setConcurrency(JsonUtil.getInt(json, "concurrency", 1));
+        return instance;
+    }
+
+    private static void add(JsonObjectBuilder builder, String name, String value) {
+        if (value != null) {
+            builder.add(name, value);
+        }
+    }
 }
@@ -21,8 +21,12 @@ import alpine.logging.Logger;
 import org.apache.commons.lang3.StringUtils;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 
 /**
  * Providers and publishers can be auto-configured if the properties follow the following conventions:
@@ -37,21 +41,44 @@ import java.util.Map;
  *     provider.${pluginId}.instance1.password=${password}
  *     provider.${pluginId}.instance1.apikey=${apikey}
  *     provider.${pluginId}.instance1.token=${token}
+ *     provider.${pluginId}.instance1.concurrency=1
  *
  *     # Properties for instance2
  *     ...
+ *
+ *     # Optionally group instances into pools
+ *     provider.${pluginId}.pools=pool1
+ *     provider.${pluginId}.pool1.alias=My-Scanners
+ *     provider.${pluginId}.pool1.members=My-Scanner, My-Other-Scanner
  * </pre>
+ *
+ * Properties may be overridden by an external properties file, in which case they
+ * are read from that file first. See {@link RemoteInstanceRegistry}.
  */
 public class RemoteInstanceAutoConfig {
 
     // Setup logging
     private static final Logger logger = Logger.getLogger(RemoteInstanceAutoConfig.class);
 
+    private final Properties overrides;
+
+    public RemoteInstanceAutoConfig() {
+        this(new Properties());
+    }
+
+    /**
+     * Creates an auto configuration which reads properties from the specified
+     * overrides before falling back to the application configuration.
+     */
+    public RemoteInstanceAutoConfig(Properties overrides) {
+        this.overrides = overrides;
+    }
+
     public Map<String, RemoteInstance> createMap(Plugin.Type pluginType, String pluginId) {
         logger.info("Initializing instance properties");
         Map<String, RemoteInstance> instanceMap = new HashMap<>();
         String type = pluginType.name().toLowerCase();
-        String[] instances = StringUtils.split(Config.getInstance().getProperty(type + "." + pluginId + ".instances"), ",");
+        String[] instances = StringUtils.split(getProperty(type + "." + pluginId + ".instances"), ",");
         if (instances == null) {
             logger.info("Instances were not specified. Unable to autoconfigure.");
             return instanceMap;
@@ -68,20 +95,83 @@ public class RemoteInstanceAutoConfig {
         return createMap(pluginType, pluginId).get(alias);
     }
 
+    /**
+     * Creates a pool for each of the specified instances (having the alias of the
+     * instance as its only member), along with the pools defined in the properties.
+     * All pools returned share the tracking of jobs in flight.
+     */
+    public Map<String, RemoteInstancePool> createPoolMap(Plugin.Type pluginType, String pluginId, Map<String, RemoteInstance> instanceMap) {
+        return createPoolMap(pluginType, pluginId, instanceMap, new HashMap<>());
+    }
+
+    /**
+     * Creates the pools as above, tracking jobs in flight in the specified map. Passing the
+     * map of previously created pools preserves the tracking when the pools are recreated.
+     */
+    public Map<String, RemoteInstancePool> createPoolMap(Plugin.Type pluginType, String pluginId, Map<String, RemoteInstance> instanceMap,
+                                                         Map<String, Set<String>> inFlight) {
+        logger.info("Initializing instance pools");
+        Map<String, RemoteInstancePool> poolMap = new HashMap<>();
+        for (RemoteInstance instance: instanceMap.values()) {
+            List<RemoteInstance> members = new ArrayList<>();
+            members.add(instance);
+            poolMap.put(instance.getAlias(), new RemoteInstancePool(instance.getAlias(), members, inFlight));
+        }
+        String type = pluginType.name().toLowerCase();
+        String[] pools = StringUtils.split(getProperty(type + "." + pluginId + ".pools"), ",");
+        if (pools == null) {
+            return poolMap;
+        }
+        for (String poolIdentifier: pools) {
+            poolIdentifier = poolIdentifier.trim();
+            String alias = StringUtils.trimToNull(getProperty(type + "." + pluginId + "." + poolIdentifier + ".alias"));
+            String[] memberAliases = StringUtils.split(getProperty(type + "." + pluginId + "." + poolIdentifier + ".members"), ",");
+            if (alias == null || memberAliases == null) {
+                logger.error("The pool " + poolIdentifier + " does not specify an alias and members. Skipping.");
+                continue;
+            }
+            List<RemoteInstance> members = new ArrayList<>();
+            for (String memberAlias: memberAliases) {
+                RemoteInstance member = instanceMap.get(memberAlias.trim());
+                if (member == null) {
+                    logger.error("The pool " + alias + " references an unknown instance: " + memberAlias.trim());
+                } else {
+                    members.add(member);
+                }
+            }
+            if (poolMap.containsKey(alias)) {
+                logger.error("The pool alias " + alias + " is already in use. Skipping.");
+                continue;
+            }
+            poolMap.put(alias, new RemoteInstancePool(alias, members, inFlight));
+        }
+        return poolMap;
+    }
+
     private RemoteInstance generateInstance(Plugin.Type pluginType, String pluginId, String instanceIdentifier) {
         String type = pluginType.name().toLowerCase();
         RemoteInstance instance = new RemoteInstance();
-        instance.setAlias(StringUtils.trimToNull(Config.getInstance().getProperty(type + "." + pluginId + "." + instanceIdentifier + ".alias")));
-        instance.setUsername(StringUtils.trimToNull(Config.getInstance().getProperty(type + "." + pluginId + "." + instanceIdentifier + ".username")));
-        instance.setPassword(StringUtils.trimToNull(Config.getInstance().getProperty(type + "." + pluginId + "." + instanceIdentifier + ".password")));
-        instance.setApiKey(StringUtils.trimToNull(Config.getInstance().getProperty(type + "." + pluginId + "." + instanceIdentifier + ".apikey")));
-        instance.setToken(StringUtils.trimToNull(Config.getInstance().getProperty(type + "." + pluginId + "." + instanceIdentifier + ".token")));
+        instance.setId(type + "." + pluginId + "." + instanceIdentifier);
+        instance.setAlias(StringUtils.trimToNull(getProperty(type + "." + pluginId + "." + instanceIdentifier + ".alias")));
+        instance.setUsername(StringUtils.trimToNull(getProperty(type + "." + pluginId + "." + instanceIdentifier + ".username")));
+        instance.setPassword(StringUtils.trimToNull(getProperty(type + "." + pluginId + "." + instanceIdentifier + ".password")));
+        instance.setApiKey(StringUtils.trimToNull(getProperty(type + "." + pluginId + "." + instanceIdentifier + ".apikey")));
+        instance.setToken(StringUtils.trimToNull(getProperty(type + "." + pluginId + "." + instanceIdentifier + ".token")));
+        String concurrency = StringUtils.trimToNull(getProperty(type + "." + pluginId + "." + instanceIdentifier + ".concurrency"));
+        if (concurrency != null) {
+            instance.setConcurrency(Integer.parseInt(concurrency));
+        }
         try {
-            instance.setURL(new URL(StringUtils.trimToNull(Config.getInstance().getProperty(type + "." + pluginId + "." + instanceIdentifier + ".url"))));
+            instance.setURL(new URL(StringUtils.trimToNull(getProperty(type + "." + pluginId + "." + instanceIdentifier + ".url"))));
         } catch (MalformedURLException e) {
             logger.error("The URL specified for the server instance is not valid. " + e.getMessage());
         }
         return instance;
     }
 
+    private String getProperty(String key) {
+        String value = overrides.getProperty(key);
+        return (value != null) ? value : Config.getInstance().getProperty(key);
+    }
+
 }
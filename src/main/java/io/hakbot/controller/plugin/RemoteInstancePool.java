@@ -0,0 +1,128 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.plugin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A RemoteInstancePool is a named group of remote instances which are able to
+ * process the same jobs. Jobs submitted to a pool are routed to the least-loaded
+ * member that has a free slot. The jobs in flight on each remote instance are
+ * tracked locally, so a pool can tell whether a member is free without asking
+ * the remote instance itself.
+ *
+ * The jobs in flight are shared between all pools created from the same
+ * {@link RemoteInstanceAutoConfig#createPoolMap(Plugin.Type, String, Map)} call,
+ * so a remote instance that is a member of several pools is never over-committed.
+ */
+public class RemoteInstancePool {
+
+    private final String alias;
+    private final List<RemoteInstance> members;
+    private final Map<String, Set<String>> inFlight;
+
+    RemoteInstancePool(String alias, List<RemoteInstance> members, Map<String, Set<String>> inFlight) {
+        this.alias = alias;
+        this.members = Collections.unmodifiableList(new ArrayList<>(members));
+        this.inFlight = inFlight;
+    }
+
+    public String getAlias() {
+        return alias;
+    }
+
+    public List<RemoteInstance> getMembers() {
+        return members;
+    }
+
+    /**
+     * Reserves a slot for the specified job on the least-loaded member of the pool.
+     * @param jobUuid the UUID of the job to reserve a slot for
+     * @param excluded the aliases of members that should not be considered
+     * @return the remote instance the job was assigned to, or null if no member has a free slot
+     */
+    public RemoteInstance acquire(String jobUuid, Collection<String> excluded) {
+        synchronized (inFlight) {
+            RemoteInstance selected = null;
+            int selectedLoad = Integer.MAX_VALUE;
+            for (RemoteInstance member: members) {
+                if (excluded != null && excluded.contains(member.getAlias())) {
+                    continue;
+                }
+                Set<String> jobs = getJobs(member);
+                if (jobs.contains(jobUuid)) {
+                    return member;
+                }
+                if (jobs.size() < member.getConcurrency() && jobs.size() < selectedLoad) {
+                    selected = member;
+                    selectedLoad = jobs.size();
+                }
+            }
+            if (selected != null) {
+                getJobs(selected).add(jobUuid);
+            }
+            return selected;
+        }
+    }
+
+    /**
+     * Records that the specified job is in flight on a remote instance, regardless
+     * of whether the instance has a free slot. Used for jobs that were started
+     * before the controller was restarted.
+     */
+    public void track(RemoteInstance instance, String jobUuid) {
+        synchronized (inFlight) {
+            getJobs(instance).add(jobUuid);
+        }
+    }
+
+    /**
+     * Frees the slot held by the specified job, if any.
+     */
+    public void release(String jobUuid) {
+        synchronized (inFlight) {
+            for (Set<String> jobs: inFlight.values()) {
+                jobs.remove(jobUuid);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of jobs in flight on the specified remote instance.
+     */
+    public int getLoad(RemoteInstance instance) {
+        synchronized (inFlight) {
+            return getJobs(instance).size();
+        }
+    }
+
+    private Set<String> getJobs(RemoteInstance instance) {
+        Set<String> jobs = inFlight.get(instance.getAlias());
+        if (jobs == null) {
+            jobs = new HashSet<>();
+            inFlight.put(instance.getAlias(), jobs);
+        }
+        return jobs;
+    }
+
+}
@@ -0,0 +1,267 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.plugin;
+
+import alpine.Config;
+import alpine.logging.Logger;
+import io.hakbot.HakbotConfigKey;
+import org.apache.commons.lang3.StringUtils;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The RemoteInstanceRegistry holds the remote instances and pools configured for
+ * each plugin. Jobs refer to configured instances by their id, which is resolved
+ * against the registry, rather than holding a copy of the instance.
+ *
+ * The instances of a plugin are created by {@link RemoteInstanceAutoConfig} the
+ * first time they are requested. If an external instances file is configured, it
+ * is checked for changes periodically, and the instances of all plugins are
+ * recreated from it when it changes. Pools keep track of the jobs in flight
+ * across reloads.
+ */
+public class RemoteInstanceRegistry {
+
+    // Setup logging
+    private static final Logger logger = Logger.getLogger(RemoteInstanceRegistry.class);
+
+    private static final long RELOAD_CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    // Holds an instance of RemoteInstanceRegistry
+    private static final RemoteInstanceRegistry instance = new RemoteInstanceRegistry();
+
+    private final Map<String, PluginInstances> plugins = new ConcurrentHashMap<>();
+    private final List<ReloadListener> listeners = new CopyOnWriteArrayList<>();
+    private final File file;
+    private volatile Properties overrides = new Properties();
+    private long lastModified;
+    private Timer timer;
+
+    private RemoteInstanceRegistry() {
+        String filename = StringUtils.trimToNull(Config.getInstance().getProperty(HakbotConfigKey.REMOTE_INSTANCES_FILE));
+        if (filename == null) {
+            file = null;
+            return;
+        }
+        if (filename.startsWith("~" + File.separator)) {
+            filename = System.getProperty("user.home") + filename.substring(1);
+        }
+        file = new File(filename);
+        overrides = loadOverrides();
+        timer = new Timer("RemoteInstanceRegistry", true);
+        timer.schedule(new ReloadCheckTask(), RELOAD_CHECK_INTERVAL, RELOAD_CHECK_INTERVAL);
+    }
+
+    /**
+     * Return an instance of the RemoteInstanceRegistry instance
+     * @return a RemoteInstanceRegistry instance
+     */
+    public static RemoteInstanceRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the instances configured for the specified plugin, keyed by alias
+     */
+    public Map<String, RemoteInstance> getInstances(Plugin.Type pluginType, String pluginId) {
+        return getPlugin(pluginType, pluginId).instances;
+    }
+
+    /**
+     * Returns the configured instance of the specified plugin having the specified alias, or null if there is none
+     */
+    public RemoteInstance get(Plugin.Type pluginType, String pluginId, String alias) {
+        return (alias == null) ? null : getInstances(pluginType, pluginId).get(alias);
+    }
+
+    /**
+     * Returns the pools configured for the specified plugin, keyed by alias. Each instance is also a pool of its own.
+     */
+    public Map<String, RemoteInstancePool> getPools(Plugin.Type pluginType, String pluginId) {
+        return getPlugin(pluginType, pluginId).pools;
+    }
+
+    /**
+     * Returns the configured instance having the specified id, or null if it no longer exists
+     */
+    public RemoteInstance getById(String id) {
+        if (id == null) {
+            return null;
+        }
+        // Ids have the form type.pluginId.instanceIdentifier
+        String[] parts = id.split("\\.", 3);
+        if (parts.length != 3) {
+            return null;
+        }
+        Plugin.Type pluginType;
+        try {
+            pluginType = Plugin.Type.valueOf(parts[0].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        for (RemoteInstance remoteInstance: getInstances(pluginType, parts[1]).values()) {
+            if (id.equals(remoteInstance.getId())) {
+                return remoteInstance;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Frees the slots held by the specified job in the pools of all plugins, if any.
+     * Called when a job finishes or is deleted, however it came to an end.
+     */
+    public void release(String jobUuid) {
+        for (PluginInstances plugin: plugins.values()) {
+            synchronized (plugin.inFlight) {
+                for (Set<String> jobs: plugin.inFlight.values()) {
+                    jobs.remove(jobUuid);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the jobs holding a slot in the pools of any plugin
+     */
+    public Set<String> getInFlightJobs() {
+        final Set<String> result = new HashSet<>();
+        for (PluginInstances plugin: plugins.values()) {
+            synchronized (plugin.inFlight) {
+                for (Set<String> jobs: plugin.inFlight.values()) {
+                    result.addAll(jobs);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Registers a listener which is informed each time the instances are reloaded
+     */
+    public void addReloadListener(ReloadListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Recreates the instances and pools of all plugins requested so far
+     */
+    public synchronized void reload() {
+        overrides = loadOverrides();
+        for (PluginInstances plugin: plugins.values()) {
+            plugin.load(overrides);
+        }
+        logger.info("Reloaded remote instances");
+        for (ReloadListener listener: listeners) {
+            listener.reloaded();
+        }
+    }
+
+    public void shutdown() {
+        if (timer != null) {
+            timer.cancel();
+        }
+    }
+
+    private PluginInstances getPlugin(Plugin.Type pluginType, String pluginId) {
+        String key = pluginType.name().toLowerCase() + "." + pluginId;
+        PluginInstances plugin = plugins.get(key);
+        if (plugin == null) {
+            synchronized (this) {
+                plugin = plugins.get(key);
+                if (plugin == null) {
+                    plugin = new PluginInstances(pluginType, pluginId);
+                    plugin.load(overrides);
+                    plugins.put(key, plugin);
+                }
+            }
+        }
+        return plugin;
+    }
+
+    private Properties loadOverrides() {
+        Properties properties = new Properties();
+        if (file == null || !file.exists()) {
+            return properties;
+        }
+        lastModified = file.lastModified();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            logger.error("Unable to read remote instances from " + file.getPath() + ". " + e.getMessage());
+        }
+        return properties;
+    }
+
+    /**
+     * Informed after the instances have been reloaded, so that resources held for
+     * instances which were removed or changed may be released
+     */
+    public interface ReloadListener {
+        void reloaded();
+    }
+
+    /**
+     * The instances and pools of a single plugin. Both maps are replaced as a whole on reload.
+     */
+    private static class PluginInstances {
+        private final Plugin.Type pluginType;
+        private final String pluginId;
+        private final Map<String, Set<String>> inFlight = new HashMap<>();
+        private volatile Map<String, RemoteInstance> instances = Collections.emptyMap();
+        private volatile Map<String, RemoteInstancePool> pools = Collections.emptyMap();
+
+        PluginInstances(Plugin.Type pluginType, String pluginId) {
+            this.pluginType = pluginType;
+            this.pluginId = pluginId;
+        }
+
+        void load(Properties overrides) {
+            RemoteInstanceAutoConfig autoConfig = new RemoteInstanceAutoConfig(overrides);
+            Map<String, RemoteInstance> instanceMap = autoConfig.createMap(pluginType, pluginId);
+            Map<String, RemoteInstancePool> poolMap = autoConfig.createPoolMap(pluginType, pluginId, instanceMap, inFlight);
+            instances = Collections.unmodifiableMap(instanceMap);
+            pools = Collections.unmodifiableMap(poolMap);
+        }
+    }
+
+    /**
+     * Reloads the instances when the external instances file has changed
+     */
+    private class ReloadCheckTask extends TimerTask {
+        public void run() {
+            if (file.exists() && file.lastModified() != lastModified) {
+                reload();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.resources.v1;
+
+import io.hakbot.controller.model.JobArtifact;
+import io.hakbot.controller.persistence.ArtifactStore;
+import io.hakbot.util.HttpUtil;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Builds responses which stream the contents of a job artifact to the client.
+ * Responses carry a strong ETag derived from the digest of the contents, and
+ * support If-None-Match, single byte ranges, and gzip content coding. Contents
+ * held in the ArtifactStore are transferred directly from the file channel.
+ */
+final class ArtifactResponse {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ArtifactResponse() { }
+
+    /**
+     * Builds the response for the specified artifact. Must be called while the
+     * artifact is still attached to an open QueryManager. The contents are
+     * written after the resource method returns.
+     * @param artifact the artifact to return
+     * @param headers the headers of the request
+     * @param mediaType the media type of the response
+     * @param attachment the filename to return the artifact as, or null to return it inline
+     */
+    static Response build(JobArtifact artifact, HttpHeaders headers, String mediaType, String attachment) {
+        final ArtifactStore store = ArtifactStore.getInstance();
+        final String digest = artifact.getDigest();
+        final byte[] contents = (digest == null) ? artifact.getContents() : null;
+        final long length = store.getSize(artifact);
+        final String eTag = "\"" + store.getDigest(artifact) + "\"";
+        final String gzipETag = "\"" + store.getDigest(artifact) + "-gzip\"";
+        final boolean acceptsGzip = isCompressible(artifact.getMimetype())
+                && HttpUtil.acceptsGzip(headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+
+        // Both tags identify the same contents, so either validates the client's copy
+        final String ifNoneMatch = headers.getHeaderString("If-None-Match");
+        if (HttpUtil.isETagMatch(ifNoneMatch, eTag) || HttpUtil.isETagMatch(ifNoneMatch, gzipETag)) {
+            return Response.notModified().header(HttpHeaders.ETAG, acceptsGzip ? gzipETag : eTag).build();
+        }
+
+        final HttpUtil.ByteRange range = HttpUtil.parseRange(headers.getHeaderString(HttpHeaders.RANGE), length);
+        if (range != null && !range.isSatisfiable()) {
+            return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header("Content-Range", range.toContentRange())
+                    .build();
+        }
+
+        // Content coding is only applied to complete representations of contents which are not already compressed
+        final boolean gzip = range == null && acceptsGzip;
+        final long start = (range == null) ? 0 : range.getStart();
+        final long count = (range == null) ? length : range.getCount();
+
+        final StreamingOutput output = new StreamingOutput() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                if (gzip) {
+                    GZIPOutputStream gzipOut = new GZIPOutputStream(out, BUFFER_SIZE);
+                    writeContents(gzipOut, digest, contents, start, count);
+                    gzipOut.finish();
+                } else {
+                    writeContents(out, digest, contents, start, count);
+                }
+                out.flush();
+            }
+        };
+
+        final Response.ResponseBuilder builder = (range == null) ? Response.ok(output, mediaType)
+                : Response.status(Response.Status.PARTIAL_CONTENT).entity(output).type(mediaType)
+                .header("Content-Range", range.toContentRange());
+        builder.header(HttpHeaders.ETAG, gzip ? gzipETag : eTag);
+        builder.header("Accept-Ranges", "bytes");
+        builder.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            builder.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        } else {
+            builder.header(HttpHeaders.CONTENT_LENGTH, count);
+        }
+        if (attachment != null) {
+            builder.header("Content-Disposition", "attachment; filename=\"" + attachment + "\"");
+        }
+        return builder.build();
+    }
+
+    private static void writeContents(OutputStream out, String digest, byte[] contents, long start, long count) throws IOException {
+        if (digest == null) {
+            if (contents != null) {
+                out.write(contents, (int) start, (int) count);
+            }
+            return;
+        }
+        try (FileChannel channel = ArtifactStore.getInstance().openChannel(digest)) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long transferred = channel.transferTo(position, Math.min(remaining, BUFFER_SIZE * 16), target);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+    }
+
+    private static boolean isCompressible(String mimeType) {
+        return !(JobArtifact.MimeType.GZIP.value().equals(mimeType)
+                || JobArtifact.MimeType.ZIP.value().equals(mimeType)
+                || JobArtifact.MimeType.BZIP.value().equals(mimeType)
+                || JobArtifact.MimeType.BZIP2.value().equals(mimeType));
+    }
+
+}
@@ -20,9 +20,10 @@ import alpine.logging.Logger;
 import io.hakbot.controller.model.Job;
 import io.hakbot.controller.persistence.QueryManager;
 import io.hakbot.controller.plugin.Console;
-import io.hakbot.controller.plugin.ConsoleIdentifier;
+import io.hakbot.controller.plugin.PluginDescriptor;
 import io.hakbot.controller.workers.ExpectedClassResolver;
 import io.hakbot.controller.workers.ExpectedClassResolverException;
+import io.hakbot.providers.Provider;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
@@ -65,20 +66,16 @@ public class ConsoleResource extends BaseResource {
             // Principal has access to job
             try {
                 ExpectedClassResolver resolver = new ExpectedClassResolver();
-                Class pluginClass = resolver.resolveProvider(job);
-                if (ConsoleIdentifier.class.isAssignableFrom(pluginClass)) {
+                PluginDescriptor<Provider> descriptor = resolver.resolveProvider(job);
+                if (descriptor.hasConsole()) {
                     Map queryParams = getUriInfo().getQueryParameters();
 
-                    // Lookup the corresponding console class from the plugin instance
-                    ConsoleIdentifier ci = (ConsoleIdentifier) pluginClass.newInstance();
-                    Class consoleClass = ci.getConsoleClass();
-
                     // Execute the console sending the job and query parameters (if any) to it
-                    Console console = (Console) consoleClass.newInstance();
+                    Console console = descriptor.getConsole();
                     Object response = console.console(job, queryParams);
                     return Response.ok(response).build();
                 }
-            } catch (ClassNotFoundException | ExpectedClassResolverException | InstantiationException | IllegalAccessException e) {
+            } catch (ExpectedClassResolverException | IllegalStateException e) {
                 logger.error(e.getMessage());
             }
         } else {
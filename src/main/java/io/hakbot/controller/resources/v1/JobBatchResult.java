@@ -0,0 +1,60 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.resources.v1;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.hakbot.controller.model.Job;
+
+/**
+ * The outcome of a single job request submitted as part of a batch. Either the job
+ * that was created, or the reason the request was rejected.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class JobBatchResult {
+
+    private final int index;
+    private Job job;
+    private String error;
+
+    JobBatchResult(int index) {
+        this.index = index;
+    }
+
+    /**
+     * Returns the position of the request within the batch
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public Job getJob() {
+        return job;
+    }
+
+    void setJob(Job job) {
+        this.job = job;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    void setError(String error) {
+        this.error = error;
+    }
+
+}
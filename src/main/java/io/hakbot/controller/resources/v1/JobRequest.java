@@ -17,12 +17,14 @@
 package io.hakbot.controller.resources.v1;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
 
 public class JobRequest {
 
     private String name;
     private JobRequestPlugin provider;
     private JobRequestPlugin publisher;
+    private List<String> callbacks;
 
     @JsonProperty(required = true)
     public String getName() {
@@ -50,6 +52,14 @@ public class JobRequest {
         this.publisher = publisher;
     }
 
+    public List<String> getCallbacks() {
+        return callbacks;
+    }
+
+    public void setCallbacks(List<String> callbacks) {
+        this.callbacks = callbacks;
+    }
+
     public class JobRequestPlugin {
 
         private String classname;
@@ -23,26 +23,51 @@ import io.hakbot.HakbotConfigKey;
 import io.hakbot.controller.event.JobUpdateEvent;
 import io.hakbot.controller.model.Job;
 import io.hakbot.controller.model.JobArtifact;
+import io.hakbot.controller.model.JobMessage;
+import io.hakbot.controller.model.JobSummary;
+import io.hakbot.controller.persistence.JobFilter;
+import io.hakbot.controller.persistence.NewJob;
 import io.hakbot.controller.persistence.QueryManager;
+import io.hakbot.controller.plugin.PluginRegistry;
+import io.hakbot.controller.workers.AdmissionController;
+import io.hakbot.controller.workers.JobManager;
+import io.hakbot.controller.workers.JobUpdateBroadcaster;
 import io.hakbot.controller.workers.State;
+import io.hakbot.controller.workers.WebhookDispatcher;
 import io.hakbot.util.JsonUtil;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 import io.swagger.annotations.Authorization;
+import org.apache.commons.lang3.StringUtils;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 @Path("/v1/job")
 @Api(value = "job", authorizations = {
@@ -51,20 +76,153 @@ import java.util.List;
 public class JobResource extends BaseResource {
 
     private static final int MAX_QUEUE_SIZE = Config.getInstance().getPropertyAsInt(HakbotConfigKey.MAX_QUEUE_SIZE);
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_CALLBACKS = 5;
+    private static final int MAX_CALLBACK_LENGTH = 255;
+    private static final String EVENT_STREAM = "text/event-stream";
+    private static final long STREAM_TIMEOUT = 25 * 1000; // responds without updates, before proxies close idle connections
+    private static final long STREAM_RECONNECT = 500;
+    private static final long STREAM_RETRY = 5 * 1000;
 
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @ApiOperation(
             value = "Returns all job",
-            notes = "Returns a list of all jobs ordered by the time the job was created.",
-            response = Job.class,
+            notes = "Returns a summary of jobs ordered by the time the job was created, newest first. Jobs may be filtered by state, "
+                    + "provider, publisher and creation time. When a limit is specified, the X-Next-Cursor header contains the value "
+                    + "of the 'after' parameter used to retrieve the next page. The header is absent on the last page.",
+            response = JobSummary.class,
             responseContainer = "List"
     )
-    public Response getAllJobs() {
+    public Response getAllJobs(
+            @ApiParam(value = "Only returns jobs in the specified state. May be specified multiple times")
+            @QueryParam("state") List<String> states,
+            @ApiParam(value = "Only returns jobs using the specified provider class")
+            @QueryParam("provider") String provider,
+            @ApiParam(value = "Only returns jobs using the specified publisher class")
+            @QueryParam("publisher") String publisher,
+            @ApiParam(value = "Only returns jobs created at or after the specified time (milliseconds since epoch)")
+            @QueryParam("from") Long from,
+            @ApiParam(value = "Only returns jobs created before the specified time (milliseconds since epoch)")
+            @QueryParam("to") Long to,
+            @ApiParam(value = "Returns jobs following the specified cursor, as returned in the X-Next-Cursor header")
+            @QueryParam("after") String after,
+            @ApiParam(value = "The maximum number of jobs to return. 0 returns all jobs", defaultValue = "0")
+            @DefaultValue("0") @QueryParam("limit") int limit) {
+        final JobFilter filter = new JobFilter()
+                .provider(StringUtils.trimToNull(provider))
+                .publisher(StringUtils.trimToNull(publisher))
+                .limit(Math.max(0, Math.min(limit, MAX_PAGE_SIZE)));
+        for (String stateName: states) {
+            State state = State.parse(stateName);
+            if (state == null) {
+                return Response.status(Response.Status.BAD_REQUEST).entity("Invalid state: " + stateName).build();
+            }
+            filter.state(state);
+        }
+        if (from != null) {
+            filter.createdFrom(new Date(from));
+        }
+        if (to != null) {
+            filter.createdTo(new Date(to));
+        }
+        if (StringUtils.isNotBlank(after)) {
+            try {
+                filter.after(after);
+            } catch (IllegalArgumentException e) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+            }
+        }
+        try (QueryManager qm = new QueryManager()) {
+            final List<JobSummary> jobs = qm.getJobSummaries(filter, getPrincipal());
+            final Response.ResponseBuilder response = Response.ok(jobs);
+            if (limit > 0 && jobs.size() == Math.min(limit, MAX_PAGE_SIZE)) {
+                response.header("X-Next-Cursor", JobFilter.toCursor(jobs.get(jobs.size() - 1)));
+            }
+            return response.build();
+        }
+    }
+
+    @GET
+    @Path("stream")
+    @Produces(EVENT_STREAM)
+    @ApiOperation(
+            value = "Returns a stream of job updates",
+            notes = "Returns a stream of server-sent events. A 'state' event is sent when the state of a job changes, and a "
+                    + "'message' event for each message added to a job. The data of each event is a JSON object holding the "
+                    + "UUID of the job. The response ends as soon as updates are available, or when none arrive for a while, "
+                    + "so that waiting clients do not hold a request thread. The client reconnects with the Last-Event-ID "
+                    + "header, and receives the updates it missed. If those updates are no longer available, or the client "
+                    + "does not keep up, a 'reset' event is sent. The client should then reload the jobs it displays."
+    )
+    public void getJobStream(
+            @ApiParam(value = "Only returns updates of the job with the specified UUID")
+            @QueryParam("uuid") String uuid,
+            @HeaderParam("Last-Event-ID") String lastEventId,
+            @Suspended final AsyncResponse asyncResponse) {
+        long lastId = 0;
+        if (StringUtils.isNotBlank(lastEventId)) {
+            try {
+                lastId = Long.parseLong(lastEventId.trim());
+            } catch (NumberFormatException e) {
+                asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST).entity("Invalid Last-Event-ID: " + lastEventId).build());
+                return;
+            }
+        }
+        final Set<Long> apiKeyIds;
         try (QueryManager qm = new QueryManager()) {
-            List<Job> jobs = qm.getJobs(QueryManager.OrderDirection.DESC, getPrincipal());
-            return Response.ok(jobs).build();
+            if (StringUtils.isNotBlank(uuid) && qm.getJob(uuid, getPrincipal()) == null) {
+                asyncResponse.resume(Response.status(Response.Status.NOT_FOUND).build());
+                return;
+            }
+            apiKeyIds = qm.getPermittedApiKeyIds(getPrincipal());
+        }
+        if (apiKeyIds != null && apiKeyIds.isEmpty()) {
+            asyncResponse.resume(Response.status(Response.Status.FORBIDDEN).build());
+            return;
         }
+        final JobUpdateBroadcaster.Subscription subscription = JobUpdateBroadcaster.getInstance()
+                .subscribe(StringUtils.trimToNull(uuid), apiKeyIds, lastId);
+        if (subscription == null) {
+            asyncResponse.resume(Response.ok("Too many subscribers. Try again later.")
+                    .status(Response.Status.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, STREAM_RETRY / 1000)
+                    .build());
+            return;
+        }
+        asyncResponse.setTimeoutHandler(new TimeoutHandler() {
+            public void handleTimeout(AsyncResponse asyncResponse) {
+                resumeJobStream(asyncResponse, subscription);
+            }
+        });
+        asyncResponse.setTimeout(STREAM_TIMEOUT, TimeUnit.MILLISECONDS);
+        subscription.setListener(new JobUpdateBroadcaster.Listener() {
+            public void ready(JobUpdateBroadcaster.Subscription subscription) {
+                resumeJobStream(asyncResponse, subscription);
+            }
+        });
+    }
+
+    /**
+     * Ends the subscription, and responds with the updates pending. Each response ends with
+     * the id to resume after, so a client which received no updates does not miss any later.
+     */
+    private static void resumeJobStream(AsyncResponse asyncResponse, JobUpdateBroadcaster.Subscription subscription) {
+        final List<JobUpdateBroadcaster.Update> updates = subscription.finish();
+        if (updates == null) {
+            return;
+        }
+        final StringBuilder sb = new StringBuilder();
+        sb.append("retry: ").append(STREAM_RECONNECT).append("\n\n");
+        for (JobUpdateBroadcaster.Update update: updates) {
+            sb.append(update);
+        }
+        sb.append("id: ").append(subscription.getLastEventId()).append("\n");
+        if (subscription.isReset()) {
+            sb.append("event: reset\ndata: {}\n");
+        }
+        sb.append("\n");
+        asyncResponse.resume(Response.ok(sb.toString()).header("Cache-Control", "no-cache").build());
     }
 
     @GET
@@ -94,15 +252,37 @@ public class JobResource extends BaseResource {
     @Produces(MediaType.TEXT_PLAIN)
     @ApiOperation(
             value = "Returns the messages produced by the job",
-            notes = "Returns the messages produced by the job. Depending on the plugin, the amount of messages produced may be large",
+            notes = "Returns the messages produced by the job, one per line. Depending on the plugin, the amount of messages produced may be large. "
+                    + "Messages are numbered in sequence. The sequence of the last message returned is specified in the X-Last-Sequence header "
+                    + "and may be used as the 'since' parameter of a subsequent request to retrieve only new messages.",
             response = String.class
     )
     public Response getJobMessage(
             @ApiParam(value = "The UUID of the job", required = true)
-            @PathParam("uuid") String uuid) {
+            @PathParam("uuid") String uuid,
+            @ApiParam(value = "Only returns messages after the specified sequence", defaultValue = "0")
+            @DefaultValue("0") @QueryParam("since") long since,
+            @ApiParam(value = "The maximum number of messages to return. 0 returns all messages", defaultValue = "0")
+            @DefaultValue("0") @QueryParam("limit") int limit) {
         try (QueryManager qm = new QueryManager()) {
-            String message = qm.getJob(uuid, getPrincipal()).getMessage();
-            return Response.ok(message).build();
+            Job job = qm.getJob(uuid, getPrincipal());
+            if (job == null) {
+                return Response.status(Response.Status.NOT_FOUND).build();
+            }
+            StringBuilder sb = new StringBuilder();
+            if (since <= 0 && StringUtils.isNotEmpty(job.getMessage())) {
+                // Messages of jobs created by earlier versions
+                sb.append(job.getMessage());
+            }
+            long lastSequence = Math.max(0, since);
+            for (JobMessage message: qm.getJobMessages(job, lastSequence, limit)) {
+                if (sb.length() > 0) {
+                    sb.append("\n");
+                }
+                sb.append(message.toString());
+                lastSequence = message.getSequence();
+            }
+            return Response.ok(sb.toString()).header("X-Last-Sequence", lastSequence).build();
         }
     }
 
@@ -117,7 +297,8 @@ public class JobResource extends BaseResource {
             @ApiParam(value = "The UUID of the job", required = true)
             @PathParam("uuid") String uuid,
             @ApiParam(value = "Modifies response behavior", defaultValue = "0", allowableValues = "0,1" )
-            @DefaultValue("0") @QueryParam("q") int q) {
+            @DefaultValue("0") @QueryParam("q") int q,
+            @Context HttpHeaders headers) {
         try (QueryManager qm = new QueryManager()) {
             Job job = qm.getJob(uuid, getPrincipal());
             if (job == null) {
@@ -127,13 +308,10 @@ public class JobResource extends BaseResource {
             if (artifact == null) {
                 return Response.status(Response.Status.NOT_FOUND).build();
             }
-            byte[] contents = artifact.getContents();
             if (q == 0) {
-                return Response.ok(contents, MediaType.TEXT_PLAIN).build();
+                return ArtifactResponse.build(artifact, headers, MediaType.TEXT_PLAIN, null);
             } else if (q == 1) {
-                return Response.ok(contents, MediaType.APPLICATION_OCTET_STREAM)
-                        .header("Content-Disposition", "attachment; filename=\"" + uuid + "-provider-payload" + "\"")
-                        .build();
+                return ArtifactResponse.build(artifact, headers, MediaType.APPLICATION_OCTET_STREAM, uuid + "-provider-payload");
             }
             return Response.status(Response.Status.BAD_REQUEST).build();
         }
@@ -150,7 +328,8 @@ public class JobResource extends BaseResource {
             @ApiParam(value = "The UUID of the job", required = true)
             @PathParam("uuid") String uuid,
             @ApiParam(value = "Modifies response behavior", defaultValue = "0", allowableValues = "0,1" )
-            @DefaultValue("0") @QueryParam("q") int q) {
+            @DefaultValue("0") @QueryParam("q") int q,
+            @Context HttpHeaders headers) {
         try (QueryManager qm = new QueryManager()) {
             Job job = qm.getJob(uuid, getPrincipal());
             if (job == null) {
@@ -160,13 +339,10 @@ public class JobResource extends BaseResource {
             if (artifact == null) {
                 return Response.status(Response.Status.NOT_FOUND).build();
             }
-            byte[] contents = artifact.getContents();
             if (q == 0) {
-                return Response.ok(contents, MediaType.TEXT_PLAIN).build();
+                return ArtifactResponse.build(artifact, headers, MediaType.TEXT_PLAIN, null);
             } else if (q == 1) {
-                return Response.ok(contents, MediaType.APPLICATION_OCTET_STREAM)
-                        .header("Content-Disposition", "attachment; filename=\"" + uuid + "-publisher-payload" + "\"")
-                        .build();
+                return ArtifactResponse.build(artifact, headers, MediaType.APPLICATION_OCTET_STREAM, uuid + "-publisher-payload");
             }
             return Response.status(Response.Status.BAD_REQUEST).build();
         }
@@ -183,7 +359,8 @@ public class JobResource extends BaseResource {
             @ApiParam(value = "The UUID of the job", required = true)
             @PathParam("uuid") String uuid,
             @ApiParam(value = "Modifies response behavior", defaultValue = "0", allowableValues = "0,1,2" )
-            @DefaultValue("0") @QueryParam("q") int q) {
+            @DefaultValue("0") @QueryParam("q") int q,
+            @Context HttpHeaders headers) {
         try (QueryManager qm = new QueryManager()) {
             Job job = qm.getJob(uuid, getPrincipal());
             if (job == null) {
@@ -193,13 +370,10 @@ public class JobResource extends BaseResource {
             if (artifact == null) {
                 return Response.status(Response.Status.NOT_FOUND).build();
             }
-            byte[] contents = artifact.getContents();
             if (q == 0) {
-                return Response.ok(contents, MediaType.TEXT_PLAIN).build();
+                return ArtifactResponse.build(artifact, headers, MediaType.TEXT_PLAIN, null);
             } else if (q == 1) {
-                return Response.ok(contents, MediaType.APPLICATION_OCTET_STREAM)
-                        .header("Content-Disposition", "attachment; filename=\"" + artifact.getFilename() + "\"")
-                        .build();
+                return ArtifactResponse.build(artifact, headers, MediaType.APPLICATION_OCTET_STREAM, artifact.getFilename());
             }
             return Response.status(Response.Status.BAD_REQUEST).build();
         }
@@ -210,20 +384,24 @@ public class JobResource extends BaseResource {
     @Produces(MediaType.APPLICATION_JSON)
     @ApiOperation(
             value = "Creates a new job",
-            notes = "Returns the job after creating it. The UUID can be used to later query on the job. The format of this request will vary largely on the plugins used.",
+            notes = "Returns the job after creating it. The UUID can be used to later query on the job. The format of this request will vary largely on the plugins used. "
+                    + "Up to " + MAX_CALLBACKS + " callback URLs may be specified. Each is sent a POST request when the job is completed, published, canceled or fails.",
             response = Job.class)
     public Response addJob(JobRequest jobRequest) {
         if (jobRequest.getName() == null || jobRequest.getProvider() == null ||
                 jobRequest.getProvider().getClassname() == null || jobRequest.getProvider().getPayload() == null) {
             return Response.status(Response.Status.BAD_REQUEST).build();
         }
+        final String callbackError = validateCallbacks(jobRequest.getCallbacks());
+        if (callbackError != null) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(callbackError).build();
+        }
+        final String providerClass = jobRequest.getProvider().getClassname();
+        final Map<String, Integer> admitted = Collections.singletonMap(providerClass, 1);
+        if (!AdmissionController.getInstance().admit(admitted)) {
+            return queueLimitReached(1);
+        }
         try (QueryManager qm = new QueryManager()) {
-            if (qm.getUnprocessedJobCount() > MAX_QUEUE_SIZE) {
-                return Response.ok("Queue limit reached. The server is not accepting new jobs. This could be due to a large number of unprocessed jobs or a small limit on the queue. Try again later.")
-                        .status(Response.Status.SERVICE_UNAVAILABLE)
-                        .build();
-            }
-
             // Retrieve the optional principal for the API key that initiated this request
             Principal principal = getPrincipal();
             ApiKey apiKey = null;
@@ -232,26 +410,163 @@ public class JobResource extends BaseResource {
             }
 
             String name = jobRequest.getName();
-            String providerClass = jobRequest.getProvider().getClassname();
             String providerPayload = JsonUtil.jsonStringFromObject(jobRequest.getProvider().getPayload());
             String publisherClass = (jobRequest.getPublisher() != null) ? jobRequest.getPublisher()
                     .getClassname() : null;
             String publisherPayload = (jobRequest.getPublisher() != null) ? JsonUtil.jsonStringFromObject(jobRequest.getPublisher()
                     .getPayload()) : null;
 
-            Job job = qm.createJob(name, providerClass, providerPayload, publisherClass, publisherPayload, apiKey);
+            Job job;
+            try {
+                job = qm.createJob(name, providerClass, providerPayload, publisherClass, publisherPayload, jobRequest.getCallbacks(), apiKey);
+            } catch (RuntimeException e) {
+                AdmissionController.getInstance().release(admitted);
+                throw e;
+            }
+            AdmissionController.getInstance().created(admitted);
             // At this point, the job has a state of CREATED, which is what we want our response to be.
             EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).state(State.IN_QUEUE));
             return Response.ok(job).build();
         }
     }
 
+    /**
+     * Returns a 429 response with an estimate of when the jobs are likely to be admitted
+     */
+    private Response queueLimitReached(int count) {
+        return Response.ok("Queue limit reached. The server is not accepting new jobs. This could be due to a large number of unprocessed jobs or a small limit on the queue. Try again later.")
+                .status(429)
+                .header(HttpHeaders.RETRY_AFTER, AdmissionController.getInstance().getRetryAfter(count))
+                .build();
+    }
+
+    @POST
+    @Path("/batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(
+            value = "Creates several jobs at once",
+            notes = "Returns a result for each request, in the order specified, holding either the job created or the reason the "
+                    + "request was rejected. Requests naming a provider or publisher which is not enabled are rejected. All valid "
+                    + "requests are created in a single transaction, and only if the queue can accept all of them. If it cannot, "
+                    + "429 is returned with a Retry-After header.",
+            response = JobBatchResult.class,
+            responseContainer = "List")
+    public Response addJobs(List<JobRequest> jobRequests) {
+        if (jobRequests == null || jobRequests.isEmpty() || jobRequests.size() > MAX_QUEUE_SIZE) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        final List<JobBatchResult> results = new ArrayList<>();
+        final List<JobBatchResult> accepted = new ArrayList<>();
+        final List<NewJob> newJobs = new ArrayList<>();
+        for (int i = 0; i < jobRequests.size(); i++) {
+            final JobRequest jobRequest = jobRequests.get(i);
+            final JobBatchResult result = new JobBatchResult(i);
+            results.add(result);
+            final String error = validate(jobRequest);
+            if (error != null) {
+                result.setError(error);
+                continue;
+            }
+            accepted.add(result);
+            newJobs.add(new NewJob(
+                    jobRequest.getName(),
+                    jobRequest.getProvider().getClassname(),
+                    JsonUtil.jsonStringFromObject(jobRequest.getProvider().getPayload()),
+                    (jobRequest.getPublisher() != null) ? jobRequest.getPublisher().getClassname() : null,
+                    (jobRequest.getPublisher() != null) ? JsonUtil.jsonStringFromObject(jobRequest.getPublisher().getPayload()) : null,
+                    jobRequest.getCallbacks()
+            ));
+        }
+        if (newJobs.isEmpty()) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(results).build();
+        }
+        // Capacity is reserved for the jobs of each provider, for the whole batch or not at all
+        final Map<String, Integer> admitted = new HashMap<>();
+        for (NewJob newJob: newJobs) {
+            Integer count = admitted.get(newJob.getProvider());
+            admitted.put(newJob.getProvider(), (count == null) ? 1 : count + 1);
+        }
+        if (!AdmissionController.getInstance().admit(admitted)) {
+            return queueLimitReached(newJobs.size());
+        }
+        try (QueryManager qm = new QueryManager()) {
+            final Principal principal = getPrincipal();
+            final ApiKey apiKey = (principal instanceof ApiKey) ? (ApiKey) principal : null;
+            final List<Job> jobs;
+            try {
+                jobs = qm.createJobs(newJobs, apiKey);
+            } catch (RuntimeException e) {
+                AdmissionController.getInstance().release(admitted);
+                throw e;
+            }
+            AdmissionController.getInstance().created(admitted);
+            for (int i = 0; i < jobs.size(); i++) {
+                accepted.get(i).setJob(jobs.get(i));
+                // At this point, the job has a state of CREATED, which is what we want our response to be.
+                EventService.getInstance().publish(new JobUpdateEvent(jobs.get(i).getUuid()).state(State.IN_QUEUE));
+            }
+            return Response.ok(results).build();
+        }
+    }
+
+    /**
+     * Validates a job request of a batch against the enabled plugins
+     * @return the reason the request is invalid, or null if it is valid
+     */
+    private String validate(JobRequest jobRequest) {
+        if (jobRequest == null || jobRequest.getName() == null || jobRequest.getProvider() == null ||
+                jobRequest.getProvider().getClassname() == null || jobRequest.getProvider().getPayload() == null) {
+            return "Invalid request. Expected parameters: [name], [provider.class], [provider.payload]";
+        }
+        if (PluginRegistry.getInstance().getProvider(jobRequest.getProvider().getClassname()) == null) {
+            return "The provider is not enabled: " + jobRequest.getProvider().getClassname();
+        }
+        if (jobRequest.getPublisher() != null && jobRequest.getPublisher().getClassname() != null
+                && PluginRegistry.getInstance().getPublisher(jobRequest.getPublisher().getClassname()) == null) {
+            return "The publisher is not enabled: " + jobRequest.getPublisher().getClassname();
+        }
+        return validateCallbacks(jobRequest.getCallbacks());
+    }
+
+    /**
+     * Validates the callback URLs of a job request
+     * @return the reason the callbacks are invalid, or null if they are valid
+     */
+    private String validateCallbacks(List<String> callbacks) {
+        if (callbacks == null) {
+            return null;
+        }
+        if (callbacks.size() > MAX_CALLBACKS) {
+            return "A job may have at most " + MAX_CALLBACKS + " callbacks";
+        }
+        for (String callback: callbacks) {
+            if (callback == null || callback.length() > MAX_CALLBACK_LENGTH) {
+                return "Invalid callback: " + callback;
+            }
+            try {
+                final URI uri = new URI(callback);
+                if (uri.getHost() == null || !("http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme()))) {
+                    return "Invalid callback: " + callback;
+                }
+                if (!WebhookDispatcher.getInstance().isPermittedHost(uri.getHost())) {
+                    return "Callback host is not permitted: " + uri.getHost();
+                }
+            } catch (URISyntaxException e) {
+                return "Invalid callback: " + callback;
+            }
+        }
+        return null;
+    }
+
     @DELETE
     @Produces(MediaType.APPLICATION_JSON)
     @ApiOperation(value = "Purges all jobs from database")
     public Response purgeAll() {
         try (QueryManager qm = new QueryManager()) {
-            qm.deleteAllJobs(getPrincipal());
+            final List<JobSummary> deleted = qm.deleteAllJobs(getPrincipal());
+            AdmissionController.getInstance().deleted(deleted);
+            JobManager.getInstance().deleted(deleted);
             return Response.ok().build();
         }
     }
@@ -264,7 +579,9 @@ public class JobResource extends BaseResource {
             @ApiParam(value = "The UUID of the job", required = true)
             @PathParam("uuid") String uuid) {
         try (QueryManager qm = new QueryManager()) {
-            qm.deleteJob(uuid, getPrincipal());
+            final List<JobSummary> deleted = qm.deleteJob(uuid, getPrincipal());
+            AdmissionController.getInstance().deleted(deleted);
+            JobManager.getInstance().deleted(deleted);
             return Response.ok().build();
         }
     }
@@ -279,7 +596,9 @@ public class JobResource extends BaseResource {
             @ApiParam(value = "The job state", required = true)
             @PathParam("state") State state) {
         try (QueryManager qm = new QueryManager()) {
-            qm.deleteJobs(state, getPrincipal());
+            final List<JobSummary> deleted = qm.deleteJobs(state, getPrincipal());
+            AdmissionController.getInstance().deleted(deleted);
+            JobManager.getInstance().deleted(deleted);
             return Response.ok().build();
         }
     }
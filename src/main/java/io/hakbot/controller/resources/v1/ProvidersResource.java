@@ -16,8 +16,10 @@
  */
 package io.hakbot.controller.resources.v1;
 
+import io.hakbot.controller.plugin.PluginDescriptor;
 import io.hakbot.controller.plugin.PluginMetadata;
-import io.hakbot.controller.workers.ExpectedClassResolver;
+import io.hakbot.controller.plugin.PluginRegistry;
+import io.hakbot.providers.Provider;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.Authorization;
@@ -45,11 +47,8 @@ public class ProvidersResource {
     )
     public Response getAll() {
         List<PluginMetadata> list = new ArrayList<>();
-        ExpectedClassResolver resolver = new ExpectedClassResolver();
-        List<Class> classes = resolver.getResolvedProviders();
-        for (Class clazz: classes) {
-            PluginMetadata meta = new PluginMetadata(clazz);
-            list.add(meta);
+        for (PluginDescriptor<Provider> descriptor: PluginRegistry.getInstance().getProviders()) {
+            list.add(descriptor.getMetadata());
         }
         return Response.ok(list).build();
     }
@@ -86,13 +86,13 @@ public class ConsoleControllerServlet extends HttpServlet {
 
         ExpectedClassResolver resolver = new ExpectedClassResolver();
         try {
-            Class pluginClass = resolver.resolveProvider(job);
+            String pluginClass = resolver.resolveProvider(job).getClassName();
             request.setAttribute("job", job);
-            String pluginPage = "/WEB-INF/plugins/" + pluginClass.getName() + "/index.jsp?uuid="+uuid;
+            String pluginPage = "/WEB-INF/plugins/" + pluginClass + "/index.jsp?uuid="+uuid;
             response.setContentType("text/html;charset=UTF-8");
             request.getRequestDispatcher(pluginPage).include(request, response);
             return;
-        } catch (ClassNotFoundException | ExpectedClassResolverException e) {
+        } catch (ExpectedClassResolverException e) {
             logger.error(e.getMessage());
         }
 
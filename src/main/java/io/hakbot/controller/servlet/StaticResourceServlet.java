@@ -16,6 +16,7 @@
  */
 package io.hakbot.controller.servlet;
 
+import io.hakbot.util.HttpUtil;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -27,7 +28,6 @@ import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
 // Adapted from http://stackoverflow.com/questions/132052/servlet-for-serving-static-content
@@ -106,9 +106,7 @@ public abstract class StaticResourceServlet extends HttpServlet {
         String ifNoneMatch = request.getHeader("If-None-Match");
 
         if (ifNoneMatch != null) {
-            String[] matches = ifNoneMatch.split("\\s*,\\s*");
-            Arrays.sort(matches);
-            return (Arrays.binarySearch(matches, eTag) > -1 || Arrays.binarySearch(matches, "*") > -1);
+            return HttpUtil.isETagMatch(ifNoneMatch, eTag);
         }
         else {
             long ifModifiedSince = request.getDateHeader("If-Modified-Since");
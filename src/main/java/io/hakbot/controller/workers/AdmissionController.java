@@ -0,0 +1,242 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.workers;
+
+import alpine.Config;
+import alpine.logging.Logger;
+import io.hakbot.HakbotConfigKey;
+import io.hakbot.controller.model.JobSummary;
+import io.hakbot.controller.persistence.QueryManager;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The AdmissionController decides whether new jobs may be queued, so that the number
+ * of unprocessed jobs (created, unavailable, queued or in progress) never exceeds the
+ * maximum queue size. Rather than counting jobs in the database for every submission,
+ * it holds the number of jobs of each provider in each state in memory. The counters
+ * are rebuilt from the database on first use and by the JobManager's recovery task,
+ * and are updated as jobs are created, change state and are deleted.
+ *
+ * Admission reserves capacity for the jobs being submitted, so concurrent submissions
+ * cannot overshoot the limit. Reservations are held apart from the counters until the
+ * jobs are created, so a rebuild never drops them. A rebuild which overlaps the creation
+ * of jobs may count them twice until the next rebuild, which errs on the side of the
+ * limit. When jobs are rejected, the time until capacity is likely to be available is
+ * estimated from the rate at which jobs have recently finished processing.
+ */
+public class AdmissionController {
+
+    // Setup logging
+    private static final Logger logger = Logger.getLogger(AdmissionController.class);
+
+    // Holds an instance of AdmissionController
+    private static final AdmissionController instance = new AdmissionController();
+
+    // The number of recent completions used to estimate throughput
+    private static final int THROUGHPUT_SAMPLES = 64;
+
+    // The delay (in seconds) suggested when there is not enough history to estimate throughput
+    private static final long DEFAULT_RETRY_AFTER = 60;
+
+    // The maximum delay (in seconds) suggested
+    private static final long MAX_RETRY_AFTER = 3600;
+
+    private final long maxQueueSize;
+
+    // The number of jobs in each state, keyed by provider
+    private final Map<String, EnumMap<State, Long>> counts = new HashMap<>();
+
+    // The number of jobs admitted but not yet created, keyed by provider
+    private final Map<String, Long> reserved = new HashMap<>();
+
+    // The number of unprocessed jobs of all providers, including those reserved
+    private long unprocessed;
+
+    // The times (in milliseconds) jobs most recently left the unprocessed states
+    private final long[] completions = new long[THROUGHPUT_SAMPLES];
+    private int completionCount;
+    private boolean initialized;
+
+    private AdmissionController() {
+        this.maxQueueSize = Config.getInstance().getPropertyAsInt(HakbotConfigKey.MAX_QUEUE_SIZE);
+    }
+
+    /**
+     * Return an instance of the AdmissionController instance
+     * @return an AdmissionController instance
+     */
+    public static AdmissionController getInstance() {
+        return instance;
+    }
+
+    /**
+     * Reserves capacity for new jobs. Either all of the jobs are admitted, or none are. Once
+     * admitted, either {@link #created(Map)} or {@link #release(Map)} must be called.
+     * @param jobs the number of jobs of each provider
+     * @return true if the jobs were admitted, false if the queue cannot accept them
+     */
+    public synchronized boolean admit(Map<String, Integer> jobs) {
+        initialize();
+        if (unprocessed + total(jobs) > maxQueueSize) {
+            return false;
+        }
+        for (Map.Entry<String, Integer> entry: jobs.entrySet()) {
+            reserve(entry.getKey(), entry.getValue());
+        }
+        return true;
+    }
+
+    /**
+     * Records that admitted jobs have been created, in the state CREATED
+     * @param jobs the number of jobs of each provider
+     */
+    public synchronized void created(Map<String, Integer> jobs) {
+        for (Map.Entry<String, Integer> entry: jobs.entrySet()) {
+            reserve(entry.getKey(), -entry.getValue());
+            add(entry.getKey(), State.CREATED, entry.getValue());
+        }
+    }
+
+    /**
+     * Releases capacity reserved for jobs which were not created
+     * @param jobs the number of jobs of each provider
+     */
+    public synchronized void release(Map<String, Integer> jobs) {
+        for (Map.Entry<String, Integer> entry: jobs.entrySet()) {
+            reserve(entry.getKey(), -entry.getValue());
+        }
+    }
+
+    /**
+     * Records that jobs have been deleted
+     */
+    public synchronized void deleted(List<JobSummary> jobs) {
+        if (!initialized) {
+            return;
+        }
+        for (JobSummary job: jobs) {
+            if (job.getState() != null) {
+                add(job.getProvider(), job.getState(), -1);
+            }
+        }
+    }
+
+    /**
+     * Records the change of state of a job which has been committed
+     */
+    synchronized void stateChanged(String provider, State from, State to) {
+        if (!initialized || from == to) {
+            return;
+        }
+        add(provider, from, -1);
+        add(provider, to, 1);
+        if (isUnprocessed(from) && !isUnprocessed(to)) {
+            completions[completionCount % THROUGHPUT_SAMPLES] = System.currentTimeMillis();
+            completionCount++;
+        }
+    }
+
+    /**
+     * Returns the number of seconds after which the specified number of jobs are likely
+     * to be admitted, based on the rate at which jobs have recently finished processing.
+     */
+    public synchronized long getRetryAfter(int count) {
+        final long excess = unprocessed + count - maxQueueSize;
+        if (excess <= 0) {
+            return 0;
+        }
+        final int samples = Math.min(completionCount, THROUGHPUT_SAMPLES);
+        if (samples < 2) {
+            return DEFAULT_RETRY_AFTER;
+        }
+        // Measured up to now rather than to the newest completion, so a stalled queue is not estimated as fast
+        final long oldest = completions[(completionCount - samples) % THROUGHPUT_SAMPLES];
+        final long elapsed = Math.max(1, System.currentTimeMillis() - oldest);
+        final double perSecond = (samples - 1) * 1000.0 / elapsed;
+        return Math.max(1, Math.min(MAX_RETRY_AFTER, (long) Math.ceil(excess / perSecond)));
+    }
+
+    /**
+     * Rebuilds the counters from the database, to correct any drift. Reservations are kept.
+     */
+    public synchronized void rebuild() {
+        try (QueryManager qm = new QueryManager()) {
+            List<Object[]> rows = qm.getJobCountsByProviderAndState();
+            counts.clear();
+            unprocessed = 0;
+            for (Long count: reserved.values()) {
+                unprocessed += count;
+            }
+            for (Object[] row: rows) {
+                State state = State.parse((String) row[1]);
+                if (state != null) {
+                    add((String) row[0], state, (Long) row[2]);
+                }
+            }
+            initialized = true;
+            if (logger.isDebugEnabled()) {
+                logger.debug("Rebuilt admission counters. Unprocessed jobs: " + unprocessed);
+            }
+        }
+    }
+
+    private void initialize() {
+        if (!initialized) {
+            rebuild();
+        }
+    }
+
+    private void reserve(String provider, long delta) {
+        Long count = reserved.get(provider);
+        long updated = Math.max(0, ((count == null) ? 0 : count) + delta);
+        unprocessed = Math.max(0, unprocessed + updated - ((count == null) ? 0 : count));
+        if (updated == 0) {
+            reserved.remove(provider);
+        } else {
+            reserved.put(provider, updated);
+        }
+    }
+
+    private void add(String provider, State state, long delta) {
+        EnumMap<State, Long> providerCounts = counts.get(provider);
+        if (providerCounts == null) {
+            providerCounts = new EnumMap<>(State.class);
+            counts.put(provider, providerCounts);
+        }
+        Long count = providerCounts.get(state);
+        providerCounts.put(state, Math.max(0, ((count == null) ? 0 : count) + delta));
+        if (isUnprocessed(state)) {
+            unprocessed = Math.max(0, unprocessed + delta);
+        }
+    }
+
+    private static long total(Map<String, Integer> jobs) {
+        long total = 0;
+        for (Integer count: jobs.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    private static boolean isUnprocessed(State state) {
+        return state == State.CREATED || state == State.UNAVAILABLE || state == State.IN_QUEUE || state == State.IN_PROGRESS;
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.workers;
+
+import alpine.Config;
+import io.hakbot.HakbotConfigKey;
+import org.apache.commons.lang3.StringUtils;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The DispatchQueue holds a queue of jobs for each provider class along
+ * with the jobs each provider is currently running. A job is handed out
+ * only when its provider has a free slot. Providers are served in weighted
+ * round-robin order so that a large backlog for one provider does not
+ * starve the others. Jobs from the same provider are served in the order
+ * they were queued.
+ *
+ * The maximum concurrency and weight of each provider are configurable in
+ * application.properties:
+ * <pre>
+ *     hakbot.provider.concurrency.${providerClass}=4
+ *     hakbot.provider.weight.${providerClass}=1
+ * </pre>
+ */
+class DispatchQueue {
+
+    private static final String CONCURRENCY_PROPERTY = "hakbot.provider.concurrency.";
+    private static final String WEIGHT_PROPERTY = "hakbot.provider.weight.";
+
+    private final Map<String, ProviderQueue> queues = new LinkedHashMap<>();
+    private final Map<String, ProviderQueue> jobs = new HashMap<>();
+    private final int defaultConcurrency = Config.getInstance().getPropertyAsInt(HakbotConfigKey.PROVIDER_CONCURRENCY);
+
+    /**
+     * Adds a job to the queue of the specified provider. Returns false if the
+     * job is already queued or running.
+     */
+    synchronized boolean offer(String provider, String jobUuid) {
+        if (jobs.containsKey(jobUuid)) {
+            return false;
+        }
+        ProviderQueue queue = getQueue(provider);
+        queue.pending.add(jobUuid);
+        jobs.put(jobUuid, queue);
+        return true;
+    }
+
+    /**
+     * Records that a job is running and occupies a slot of the specified provider,
+     * regardless of whether a slot was free. Used for jobs already in progress.
+     */
+    synchronized void occupy(String provider, String jobUuid) {
+        release(jobUuid);
+        ProviderQueue queue = getQueue(provider);
+        queue.running.add(jobUuid);
+        jobs.put(jobUuid, queue);
+    }
+
+    /**
+     * Removes a job from the queue, freeing its slot if it was running.
+     */
+    synchronized void release(String jobUuid) {
+        ProviderQueue queue = jobs.remove(jobUuid);
+        if (queue != null) {
+            queue.pending.remove(jobUuid);
+            queue.running.remove(jobUuid);
+        }
+    }
+
+    /**
+     * Removes all queued and running jobs that are not in the specified collection
+     * of job UUIDs. Used to reconcile the in-memory state with the database.
+     */
+    synchronized void retainAll(Collection<String> jobUuids) {
+        Set<String> retain = new LinkedHashSet<>(jobUuids);
+        for (Iterator<Map.Entry<String, ProviderQueue>> it = jobs.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, ProviderQueue> entry = it.next();
+            if (!retain.contains(entry.getKey())) {
+                entry.getValue().pending.remove(entry.getKey());
+                entry.getValue().running.remove(entry.getKey());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Takes as many jobs off the queues as there are free slots. Each pass over the
+     * providers allows each provider to start up to its weight in jobs. The returned
+     * jobs occupy a slot until they are released.
+     */
+    synchronized List<String> poll() {
+        List<String> dispatched = new ArrayList<>();
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (ProviderQueue queue: queues.values()) {
+                for (int i = 0; i < queue.weight && queue.hasFreeSlot(); i++) {
+                    Iterator<String> it = queue.pending.iterator();
+                    String jobUuid = it.next();
+                    it.remove();
+                    queue.running.add(jobUuid);
+                    dispatched.add(jobUuid);
+                    progress = true;
+                }
+            }
+        }
+        return dispatched;
+    }
+
+    private ProviderQueue getQueue(String provider) {
+        ProviderQueue queue = queues.get(provider);
+        if (queue == null) {
+            queue = new ProviderQueue(
+                    getProperty(CONCURRENCY_PROPERTY + provider, defaultConcurrency),
+                    getProperty(WEIGHT_PROPERTY + provider, 1)
+            );
+            queues.put(provider, queue);
+        }
+        return queue;
+    }
+
+    private int getProperty(String key, int defaultValue) {
+        String value = StringUtils.trimToNull(Config.getInstance().getProperty(key));
+        return (value == null) ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * Holds the queued and running jobs for a single provider class
+     */
+    private static class ProviderQueue {
+        private final Set<String> pending = new LinkedHashSet<>();
+        private final Set<String> running = new LinkedHashSet<>();
+        private final int maxConcurrency;
+        private final int weight;
+
+        ProviderQueue(int maxConcurrency, int weight) {
+            this.maxConcurrency = maxConcurrency;
+            this.weight = Math.max(1, weight);
+        }
+
+        boolean hasFreeSlot() {
+            return !pending.isEmpty() && (maxConcurrency <= 0 || running.size() < maxConcurrency);
+        }
+    }
+
+}
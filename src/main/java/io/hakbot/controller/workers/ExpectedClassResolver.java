@@ -16,97 +16,50 @@
  */
 package io.hakbot.controller.workers;
 
-import alpine.Config;
-import alpine.logging.Logger;
-import io.hakbot.HakbotConfigKey;
 import io.hakbot.controller.model.Job;
-import io.hakbot.controller.plugin.Plugin;
+import io.hakbot.controller.plugin.PluginDescriptor;
+import io.hakbot.controller.plugin.PluginRegistry;
+import io.hakbot.providers.Provider;
+import io.hakbot.publishers.Publisher;
 import org.apache.commons.lang3.StringUtils;
-import java.util.ArrayList;
-import java.util.List;
 
+/**
+ * Resolves the plugins of a job against the whitelist of enabled plugins held
+ * by the {@link PluginRegistry}. This class holds no state of its own and is
+ * safe to use from any thread.
+ */
 public class ExpectedClassResolver {
 
-    // Setup logging
-    private static final Logger logger = Logger.getLogger(ExpectedClassResolver.class);
-
-    private static final List<String> providersConfigured = new ArrayList<>();
-    private static final List<String> publishersConfigured = new ArrayList<>();
-    private static final List<Class> resolvedProviders = new ArrayList<>();
-    private static final List<Class> resolvedPublishers = new ArrayList<>();
-    static {
-        String[] classes = Config.getInstance().getProperty(HakbotConfigKey.PROVIDERS_ENABLED).split(",");
-        for (String clazz : classes) {
-            providersConfigured.add(clazz.trim());
-        }
-        classes = Config.getInstance().getProperty(HakbotConfigKey.PUBLISHERS_ENABLED).split(",");
-        for (String clazz : classes) {
-            publishersConfigured.add(clazz.trim());
-        }
-    }
-
     /**
-     * Resolves the Class for the specified Job and plugin type. The plugin needs to be whitelisted
-     * in order to be resolved. If plugin is not whitelisted, an ExpectedClassResolverException
-     * is thrown.
-     */
-    private Class resolveClass(Plugin.Type type, String pluginClass) throws ClassNotFoundException, ExpectedClassResolverException {
-        if (type.equals(Plugin.Type.PROVIDER)) {
-            if (providersConfigured.contains(pluginClass)) {
-                return Class.forName(pluginClass, false, this.getClass().getClassLoader());
-            }
-        } else {
-            if (publishersConfigured.contains(pluginClass)) {
-                return Class.forName(pluginClass, false, this.getClass().getClassLoader());
-            }
-        }
-        throw new ExpectedClassResolverException();
-    }
-
-    /**
-     * Resolves the Class for the specified Job's provider. The provider needs to be whitelisted
+     * Resolves the descriptor of the specified Job's provider. The provider needs to be whitelisted
      * in order to be resolved. If provider is not whitelisted, an ExpectedClassResolverException
      * is thrown.
      */
-    public Class resolveProvider(Job job) throws ClassNotFoundException, ExpectedClassResolverException {
-        return resolveClass(Plugin.Type.PROVIDER, job.getProvider());
+    public PluginDescriptor<Provider> resolveProvider(Job job) throws ExpectedClassResolverException {
+        PluginDescriptor<Provider> descriptor = PluginRegistry.getInstance().getProvider(job.getProvider());
+        if (descriptor == null) {
+            throw new ExpectedClassResolverException();
+        }
+        return descriptor;
     }
 
     /**
-     * Resolves the Class for the specified Job's publisher. The publisher needs to be whitelisted
+     * Resolves the descriptor of the specified Job's publisher. The publisher needs to be whitelisted
      * in order to be resolved. If publisher is not whitelisted, an ExpectedClassResolverException
      * is thrown.
      */
-    public Class resolvePublisher(Job job) throws ClassNotFoundException, ExpectedClassResolverException {
-        return resolveClass(Plugin.Type.PUBLISHER, job.getPublisher());
-    }
-
-    private List<Class> autoResolve(List<Class> resolveList, List<String> classNames) {
-        if (resolveList.size() == 0) {
-            for (String className: classNames) {
-                try {
-                    Class clazz = Class.forName(className, false, this.getClass().getClassLoader());
-                    resolveList.add(clazz);
-                } catch (ClassNotFoundException e) {
-                    logger.error("Cannot resolve " + className);
-                }
-            }
+    public PluginDescriptor<Publisher> resolvePublisher(Job job) throws ExpectedClassResolverException {
+        PluginDescriptor<Publisher> descriptor = PluginRegistry.getInstance().getPublisher(job.getPublisher());
+        if (descriptor == null) {
+            throw new ExpectedClassResolverException();
         }
-        return resolveList;
-    }
-
-    public List<Class> getResolvedProviders() {
-        return autoResolve(resolvedProviders, providersConfigured);
-    }
-
-    public List<Class> getResolvedPubishers() {
-        return autoResolve(resolvedPublishers, publishersConfigured);
+        return descriptor;
     }
 
     public boolean isClassAllowed(String pluginClass) {
         if (StringUtils.isEmpty(pluginClass)) {
             return true;
         }
-        return (providersConfigured.contains(pluginClass) || publishersConfigured.contains(pluginClass));
+        return PluginRegistry.getInstance().isEnabled(pluginClass);
     }
 }
@@ -21,14 +21,14 @@ import alpine.event.framework.EventService;
 import alpine.logging.Logger;
 import io.hakbot.HakbotConfigKey;
 import io.hakbot.controller.event.JobProcessEvent;
-import io.hakbot.controller.event.JobProgressCheckEvent;
 import io.hakbot.controller.model.Job;
+import io.hakbot.controller.model.JobSummary;
 import io.hakbot.controller.model.SystemAccount;
+import io.hakbot.controller.persistence.PruneResult;
 import io.hakbot.controller.persistence.QueryManager;
+import io.hakbot.controller.plugin.RemoteInstanceRegistry;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.Timer;
@@ -37,31 +37,47 @@ import java.util.TimerTask;
 /**
  * The JobManager is used to store the current queued jobs waiting
  * to be executed and the jobs which are currently being executed.
- * It also implements a TimerTask which will check for new work to
- * do and another TimerTask which will cleanup references to
- * completed jobs. Both tasks intervals are configurable in
- * application.properties. If new work is found, the scheduler will
- * take one job off the queue every time the scheduled task runs.
+ * Jobs are dispatched as soon as they are placed in the queue (as
+ * informed by the JobUpdateWriter), so there is no need to wait for
+ * a scheduled task to discover them. Jobs whose provider was not
+ * available are retried after the queue check interval. Each provider
+ * runs a limited number of jobs at a time, and providers take turns in
+ * having their queued jobs dispatched (see {@link DispatchQueue}).
+ *
+ * The progress of running jobs is checked by the ProgressCheckScheduler.
+ * The JobManager also implements a low-frequency TimerTask which recovers
+ * queued and running jobs from the database (after a restart for example),
+ * and another TimerTask which will cleanup references to completed jobs.
+ * All task intervals are configurable in application.properties.
  */
 public class JobManager {
 
     // Setup logging
     private static final Logger logger = Logger.getLogger(JobManager.class);
 
-    // Holds an in-memory queue of all UUIDs for jobs that need to be processed
-    private Set<String> workQueue = Collections.synchronizedSet(new LinkedHashSet<String>());
+    // Holds the queued jobs of each provider and the jobs occupying a provider slot
+    private DispatchQueue dispatchQueue = new DispatchQueue();
 
     // Defines the interval that jobs will be permanently removed from the system
     private long jobPruneInterval;
 
+    // Defines the number of jobs deleted in each transaction when pruning
+    private static final int PRUNE_BATCH_SIZE = 500;
+
+    // Defines the delay before a job whose provider was unavailable is dispatched again
+    private long unavailableRetryDelay;
+
     // A Principal implementation for system-wide object-level access control
     private SystemAccount systemAccount = new SystemAccount();
 
     // Holds an instance of JobManager
     private static final JobManager instance = new JobManager();
 
-    // Defines a scheduled task that checks for new jobs and in-progress jobs
-    private Timer jobSchedulerTimer = new Timer();
+    // Defines a scheduled task that recovers queued jobs from the database
+    private Timer jobRecoveryTimer = new Timer();
+
+    // Defines a timer used to retry jobs whose provider was unavailable
+    private Timer jobRetryTimer = new Timer();
 
     // Defines a scheduled task that prunes the database of old jobs
     private Timer jobPruneTimer = new Timer();
@@ -73,11 +89,13 @@ public class JobManager {
         logger.info("Initializing JobManager");
 
         int queueCheckInterval = Config.getInstance().getPropertyAsInt(HakbotConfigKey.QUEUE_CHECK_INTERVAL) * 1000; // in Seconds
+        long queueRecoveryInterval = Config.getInstance().getPropertyAsLong(HakbotConfigKey.QUEUE_RECOVERY_INTERVAL) * 60000; // in Minutes
         long jobPruneCheckInterval = Config.getInstance().getPropertyAsLong(HakbotConfigKey.JOB_PRUNE_CHECK_INTERVAL) * 3600000; // in Hours
         this.jobPruneInterval = Config.getInstance().getPropertyAsLong(HakbotConfigKey.JOB_PRUNE_INTERVAL) * 86400000; // in Days
+        this.unavailableRetryDelay = queueCheckInterval;
 
-        // Creates a new JobSchedulerTask every x seconds (defined by queueCheckInterval)
-        jobSchedulerTimer.schedule(new JobSchedulerTask(), 0, queueCheckInterval);
+        // Creates a new JobRecoveryTask at startup and every x minutes (defined by queueRecoveryInterval)
+        jobRecoveryTimer.schedule(new JobRecoveryTask(), 0, queueRecoveryInterval);
 
         // Creates a new JobPruneTask every x seconds (defined by jobPruneInterval)
         jobPruneTimer.schedule(new JobPruneTask(), 0, jobPruneCheckInterval);
@@ -92,86 +110,187 @@ public class JobManager {
     }
 
     /**
-     * Polls for all unavailable jobs and those that are in queue and
-     * sends events to start the jobs. This class also sends events to
-     * update the status of all jobs marked in progress.
+     * Informs the JobManager that the state of a job has changed. Jobs placed
+     * in the queue are dispatched as soon as their provider has a free slot.
+     * The progress of jobs is checked while they are in progress.
+     * Jobs whose provider was unavailable give up their slot and are queued
+     * again after a delay. All other jobs leave the queue, freeing their slot.
      */
-    private class JobSchedulerTask extends TimerTask {
-        public synchronized void run() {
+    public void stateChanged(Job job) {
+        final State state = job.getState();
+        if (state == State.IN_QUEUE) {
+            enqueue(job.getProvider(), job.getUuid());
+        } else if (state == State.IN_PROGRESS) {
+            dispatchQueue.occupy(job.getProvider(), job.getUuid());
+            ProgressCheckScheduler.getInstance().schedule(job);
+        } else if (state == State.UNAVAILABLE) {
+            dispatchQueue.release(job.getUuid());
+            jobRetryTimer.schedule(new JobRetryTask(job.getProvider(), job.getUuid()), unavailableRetryDelay);
+        } else {
+            release(job.getUuid());
+        }
+        dispatch();
+    }
+
+    /**
+     * Informs the JobManager that jobs have been deleted. Deleted jobs free their
+     * slots, including those on remote instances, whatever state they were in.
+     */
+    public void deleted(List<JobSummary> jobs) {
+        for (JobSummary job: jobs) {
+            release(job.getUuid());
+        }
+        dispatch();
+    }
+
+    /**
+     * Informs the JobManager that a job was found to have been deleted
+     */
+    public void deleted(String jobUuid) {
+        release(jobUuid);
+        dispatch();
+    }
+
+    /**
+     * Frees the slots held by a job which has left the queue, and stops checking its progress
+     */
+    private void release(String jobUuid) {
+        dispatchQueue.release(jobUuid);
+        ProgressCheckScheduler.getInstance().cancel(jobUuid);
+        RemoteInstanceRegistry.getInstance().release(jobUuid);
+    }
+
+    /**
+     * Removes a job from the work queue without a state change, freeing its
+     * slot. Used when a dispatched job turns out to no longer be queued.
+     */
+    public void discard(String jobUuid) {
+        dispatchQueue.release(jobUuid);
+        dispatch();
+    }
+
+    /**
+     * Adds the specified job to the queue of its provider, unless the job is
+     * already queued or running.
+     */
+    private void enqueue(String provider, String jobUuid) {
+        if (dispatchQueue.offer(provider, jobUuid)) {
             if (logger.isDebugEnabled()) {
-                logger.debug("Polling for in-progress jobs");
-            }
-            for (Job job: getInProcessJobs()) {
-                if (workQueue.contains(job.getUuid())) {
-                    workQueue.remove(job.getUuid());
-                }
-                EventService.getInstance().publish(new JobProgressCheckEvent(job.getUuid()));
+                logger.debug("Adding job " + jobUuid + " to work queue");
             }
+        }
+    }
+
+    /**
+     * Sends an event to start each queued job whose provider has a free slot.
+     */
+    private void dispatch() {
+        for (String jobUuid: dispatchQueue.poll()) {
             if (logger.isDebugEnabled()) {
-                logger.debug("Polling for new jobs");
-            }
-            for (Job job: getWaitingJobs()) {
-                if (workQueue.add(job.getUuid())) {
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Adding job " + job.getUuid() + " to work queue");
-                    }
-                    EventService.getInstance().publish(new JobProcessEvent(job.getUuid()));
-                }
+                logger.debug("Dispatching job " + jobUuid);
             }
+            EventService.getInstance().publish(new JobProcessEvent(jobUuid));
         }
+    }
 
-        private List<Job> getInProcessJobs() {
-            List<Job> jobs = new ArrayList<>();
+    /**
+     * Sweeps the database for unavailable jobs and those that are in queue
+     * and queues any that are not already in the work queue. In-progress jobs
+     * occupy a slot of their provider, and jobs that no longer exist or are no
+     * longer active are removed. Under normal operation, jobs are queued as
+     * their state changes. This task exists to recover jobs queued or started
+     * before a restart.
+     */
+    private class JobRecoveryTask extends TimerTask {
+        public synchronized void run() {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Recovering queued jobs");
+            }
+            // Taken before the jobs are read, so slots acquired by jobs created since are not freed
+            Set<String> inFlight = RemoteInstanceRegistry.getInstance().getInFlightJobs();
             QueryManager qm = new QueryManager();
-            jobs.addAll(qm.getJobs(State.IN_PROGRESS, QueryManager.OrderDirection.ASC, systemAccount));
+            List<Job> inProgress = qm.getJobs(State.IN_PROGRESS, QueryManager.OrderDirection.ASC, systemAccount);
+            List<Job> waiting = new ArrayList<>();
+            waiting.addAll(qm.getJobs(State.UNAVAILABLE, QueryManager.OrderDirection.ASC, systemAccount));
+            waiting.addAll(qm.getJobs(State.IN_QUEUE, QueryManager.OrderDirection.ASC, systemAccount));
             qm.close();
-            return jobs;
+
+            List<String> active = new ArrayList<>();
+            for (Job job: inProgress) {
+                active.add(job.getUuid());
+            }
+            for (Job job: waiting) {
+                active.add(job.getUuid());
+            }
+            dispatchQueue.retainAll(active);
+            // Free the slots on remote instances of jobs which ended or were deleted without releasing them
+            inFlight.removeAll(active);
+            for (String jobUuid: inFlight) {
+                logger.warn("Freeing the remote instance slot held by job " + jobUuid + ", which is no longer running");
+                RemoteInstanceRegistry.getInstance().release(jobUuid);
+            }
+            for (Job job: inProgress) {
+                dispatchQueue.occupy(job.getProvider(), job.getUuid());
+                ProgressCheckScheduler.getInstance().schedule(job);
+            }
+            for (Job job: waiting) {
+                enqueue(job.getProvider(), job.getUuid());
+            }
+
+            // Correct any drift in the counters used to admit new jobs
+            AdmissionController.getInstance().rebuild();
+            dispatch();
         }
+    }
 
-        private List<Job> getWaitingJobs() {
-            List<Job> jobs = new ArrayList<>();
-            QueryManager qm = new QueryManager();
-            jobs.addAll(qm.getJobs(State.UNAVAILABLE, QueryManager.OrderDirection.ASC, systemAccount));
-            jobs.addAll(qm.getJobs(State.IN_QUEUE, QueryManager.OrderDirection.ASC, systemAccount));
-            qm.close();
-            return jobs;
+    /**
+     * Queues a job whose provider was previously unavailable
+     */
+    private class JobRetryTask extends TimerTask {
+        private final String provider;
+        private final String jobUuid;
+
+        JobRetryTask(String provider, String jobUuid) {
+            this.provider = provider;
+            this.jobUuid = jobUuid;
+        }
+
+        public void run() {
+            enqueue(provider, jobUuid);
+            dispatch();
         }
     }
 
     /**
-     * Removes old jobs from database
+     * Prunes jobs whose last activity is older than the prune interval. Expired jobs are
+     * selected by id and deleted in batches, each in its own short transaction, so that
+     * neither the jobs nor their messages are loaded and locks are never held for long.
      */
     private class JobPruneTask extends TimerTask {
         public synchronized void run() {
             logger.info("Starting Prune of Job Database");
-            Date now = new Date();
-            QueryManager qm = new QueryManager();
-            List<Job> allJobs = qm.getJobs(QueryManager.OrderDirection.DESC, systemAccount);
-            for (Job job : allJobs) {
-                if (!(job.getState() == State.CREATED || job.getState() == State.IN_QUEUE || job.getState() == State.IN_PROGRESS)) {
-                    if (now.getTime() - (jobPruneInterval) >= getLastestTimestamp(job).getTime()) {
-                        logger.info("Pruning Job: " + job.getUuid());
-                        qm.deleteJob(job.getUuid(), systemAccount);
-                    }
-                }
-            }
-            qm.close();
-            logger.info("Completed Prune of Job Database");
-        }
-
-        private Date getLastestTimestamp(Job job) {
-            if (job.getCompleted() != null) {
-                return job.getCompleted();
-            } else if (job.getStarted() != null) {
-                return job.getStarted();
-            } else {
-                return job.getCreated();
+            final Date cutoff = new Date(System.currentTimeMillis() - jobPruneInterval);
+            final PruneResult result = new PruneResult();
+            final QueryManager qm = new QueryManager();
+            try {
+                List<Long> ids;
+                do {
+                    ids = qm.getExpiredJobIds(cutoff, PRUNE_BATCH_SIZE);
+                    qm.pruneJobs(ids, result);
+                } while (ids.size() == PRUNE_BATCH_SIZE);
+            } catch (RuntimeException e) {
+                logger.error("An error occurred while pruning the job database", e);
+            } finally {
+                qm.close();
             }
+            logger.info("Completed Prune of Job Database. Removed " + result);
         }
     }
 
     public void shutdown() {
-        jobSchedulerTimer.cancel();
+        ProgressCheckScheduler.getInstance().shutdown();
+        jobRecoveryTimer.cancel();
+        jobRetryTimer.cancel();
         jobPruneTimer.cancel();
     }
 }
@@ -28,7 +28,6 @@ import io.hakbot.controller.persistence.QueryManager;
 import io.hakbot.providers.AsynchronousProvider;
 import io.hakbot.providers.Provider;
 import io.hakbot.providers.SynchronousProvider;
-import java.lang.reflect.Constructor;
 
 /**
  * The JobProcessWorker is a Subscriber, that when a JobProcessEvent is fired,
@@ -51,16 +50,19 @@ public class JobProcessWorker implements Subscriber {
             Job job = qm.getJob(event.getJobUuid(), new SystemAccount());
             qm.close();
 
+            // The job may have been canceled or deleted while it was waiting for a slot
+            if (job == null || !(job.getState() == State.IN_QUEUE || job.getState() == State.UNAVAILABLE)) {
+                logger.info("Job: " + event.getJobUuid() + " is no longer queued. Skipping.");
+                JobManager.getInstance().discard(event.getJobUuid());
+                return;
+            }
+
             logger.info("Job: " + event.getJobUuid() + " is being processed.");
 
             boolean initialized, isAvailable;
             try {
                 ExpectedClassResolver resolver = new ExpectedClassResolver();
-                Class clazz = resolver.resolveProvider(job);
-                @SuppressWarnings("unchecked")
-                Constructor<?> con = clazz.getConstructor();
-                Provider provider = (AsynchronousProvider.class.isAssignableFrom(clazz)) ?
-                        (AsynchronousProvider)con.newInstance() : (SynchronousProvider)con.newInstance();
+                Provider provider = resolver.resolveProvider(job).get();
 
                 initialized = provider.initialize(job);
                 if (initialized) {
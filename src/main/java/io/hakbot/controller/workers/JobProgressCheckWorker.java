@@ -20,6 +20,7 @@ import alpine.event.framework.Event;
 import alpine.event.framework.EventService;
 import alpine.event.framework.Subscriber;
 import alpine.logging.Logger;
+import io.hakbot.controller.event.JobBatchProgressCheckEvent;
 import io.hakbot.controller.event.JobProgressCheckEvent;
 import io.hakbot.controller.event.JobPublishEvent;
 import io.hakbot.controller.event.JobUpdateEvent;
@@ -27,8 +28,13 @@ import io.hakbot.controller.model.Job;
 import io.hakbot.controller.model.SystemAccount;
 import io.hakbot.controller.persistence.QueryManager;
 import io.hakbot.providers.AsynchronousProvider;
+import io.hakbot.providers.BatchAsynchronousProvider;
+import io.hakbot.providers.Provider;
 import org.apache.commons.lang3.StringUtils;
-import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * The JobProgressCheckWorker is a Subscriber, that when a JobProgressCheckWorker
@@ -36,7 +42,11 @@ import java.lang.reflect.Constructor;
  * work with AsynchronousProviders only. There is no need to check progress of
  * synchronous providers.
  *
+ * When a JobBatchProgressCheckEvent is fired, the jobs are grouped by the remote
+ * instance running them and the status of each group is checked at once.
+ *
  * @see JobProgressCheckEvent
+ * @see JobBatchProgressCheckEvent
  */
 public class JobProgressCheckWorker implements Subscriber {
 
@@ -50,31 +60,109 @@ public class JobProgressCheckWorker implements Subscriber {
             Job job = qm.getJob(event.getJobUuid(), new SystemAccount());
             qm.close();
 
+            // The job may have been deleted while it was running
+            if (job == null) {
+                logger.info("Job: " + event.getJobUuid() + " no longer exists. Skipping.");
+                JobManager.getInstance().deleted(event.getJobUuid());
+                return;
+            }
+
             if (logger.isDebugEnabled()) {
                 logger.debug("Progress update for job: " + event.getJobUuid());
             }
 
             try {
-                ExpectedClassResolver resolver = new ExpectedClassResolver();
-                Class clazz = resolver.resolveProvider(job);
-                @SuppressWarnings("unchecked")
-                Constructor<?> constructor = clazz.getConstructor();
                 // We only need to check status of asynchronous jobs
-                AsynchronousProvider provider = (AsynchronousProvider)constructor.newInstance();
+                AsynchronousProvider provider = (AsynchronousProvider)createProvider(job);
                 if (!provider.isRunning(job)) {
-                    // Mark as complete first, then retrieve result. It may take a while to download result, so
-                    // we don't what this attempted again, thus marking it complete first.
-                    EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).state(State.COMPLETED));
-                    provider.getResult(job);
-                    // Now that the result has been downloaded check if a publisher was defined and if so, send event.
-                    if (!StringUtils.isEmpty(job.getPublisher())) {
-                        EventService.getInstance().publish(new JobPublishEvent(job.getUuid()));
-                    }
+                    complete(provider, job);
                 }
             } catch (Throwable ex) {
                 logger.error(ex.getMessage());
                 EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).state(State.FAILED).message(ex.getMessage()));
             }
+        } else if (e instanceof JobBatchProgressCheckEvent) {
+            JobBatchProgressCheckEvent event = (JobBatchProgressCheckEvent) e;
+
+            List<Job> jobs = new ArrayList<>();
+            QueryManager qm = new QueryManager();
+            for (String jobUuid: event.getJobUuids()) {
+                Job job = qm.getJob(jobUuid, new SystemAccount());
+                if (job != null && job.getState() == State.IN_PROGRESS) {
+                    jobs.add(job);
+                }
+            }
+            qm.close();
+            if (jobs.isEmpty()) {
+                return;
+            }
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Progress update for " + jobs.size() + " jobs of " + event.getProvider());
+            }
+
+            BatchAsynchronousProvider provider;
+            try {
+                provider = (BatchAsynchronousProvider)createProvider(jobs.get(0));
+            } catch (Throwable ex) {
+                logger.error(ex.getMessage());
+                for (Job job: jobs) {
+                    EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).state(State.FAILED).message(ex.getMessage()));
+                }
+                return;
+            }
+
+            // Group jobs by the remote instance running them
+            Map<String, List<Job>> batches = new LinkedHashMap<>();
+            for (Job job: jobs) {
+                String key = provider.getBatchKey(job);
+                List<Job> batch = batches.get(key);
+                if (batch == null) {
+                    batch = new ArrayList<>();
+                    batches.put(key, batch);
+                }
+                batch.add(job);
+            }
+
+            for (List<Job> batch: batches.values()) {
+                Map<String, Boolean> running;
+                try {
+                    running = provider.isRunning(batch);
+                } catch (Throwable ex) {
+                    // The status of the batch could not be determined. It will be checked again later.
+                    logger.error(ex.getMessage());
+                    continue;
+                }
+                for (Job job: batch) {
+                    if (Boolean.FALSE.equals(running.get(job.getUuid()))) {
+                        try {
+                            complete(provider, job);
+                        } catch (Throwable ex) {
+                            logger.error(ex.getMessage());
+                            EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).state(State.FAILED).message(ex.getMessage()));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private Provider createProvider(Job job) throws ExpectedClassResolverException {
+        ExpectedClassResolver resolver = new ExpectedClassResolver();
+        return resolver.resolveProvider(job).get();
+    }
+
+    /**
+     * Marks the job as complete and retrieves the result from the provider.
+     */
+    private void complete(AsynchronousProvider provider, Job job) {
+        // Mark as complete first, then retrieve result. It may take a while to download result, so
+        // we don't what this attempted again, thus marking it complete first.
+        EventService.getInstance().publish(new JobUpdateEvent(job.getUuid()).state(State.COMPLETED));
+        provider.getResult(job);
+        // Now that the result has been downloaded check if a publisher was defined and if so, send event.
+        if (!StringUtils.isEmpty(job.getPublisher())) {
+            EventService.getInstance().publish(new JobPublishEvent(job.getUuid()));
         }
     }
 }
@@ -26,7 +26,6 @@ import io.hakbot.controller.model.Job;
 import io.hakbot.controller.model.SystemAccount;
 import io.hakbot.controller.persistence.QueryManager;
 import io.hakbot.publishers.Publisher;
-import java.lang.reflect.Constructor;
 
 /**
  * The JobPublishWorker is a Subscriber, that when a JobPublishEvent is fired,
@@ -52,10 +51,7 @@ public class JobPublishWorker implements Subscriber {
             boolean initialized;
             try {
                 ExpectedClassResolver resolver = new ExpectedClassResolver();
-                Class clazz = resolver.resolvePublisher(job);
-                @SuppressWarnings("unchecked")
-                Constructor<?> con = clazz.getConstructor();
-                Publisher publisher = (Publisher)con.newInstance();
+                Publisher publisher = resolver.resolvePublisher(job).get();
 
                 initialized = publisher.initialize(job);
                 if (initialized) {
@@ -0,0 +1,279 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.workers;
+
+import io.hakbot.controller.model.JobMessage;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The JobUpdateBroadcaster pushes job state changes and new messages to subscribers
+ * as soon as the JobUpdateWriter has committed them, so that clients do not have to
+ * poll for updates.
+ *
+ * Each update is numbered. The most recent updates are retained so that a subscriber
+ * which reconnects may resume after the last update it received. A subscriber does not
+ * hold a thread while it waits. Its listener is notified from the broadcaster's own timer
+ * once updates are pending, after a short delay so that a burst of updates is delivered
+ * together. A subscriber which does not keep up, or which asks to resume from an update
+ * no longer retained, is told to reset and reload the jobs it displays.
+ */
+public class JobUpdateBroadcaster {
+
+    // Holds an instance of JobUpdateBroadcaster
+    private static final JobUpdateBroadcaster instance = new JobUpdateBroadcaster();
+
+    // The number of recent updates retained for subscribers which resume
+    private static final int HISTORY_SIZE = 1000;
+
+    // The number of updates buffered for each subscriber
+    private static final int BUFFER_SIZE = 256;
+
+    // The maximum number of concurrent subscribers
+    private static final int MAX_SUBSCRIBERS = 100;
+
+    // The time in milliseconds updates are gathered before a subscriber is notified
+    private static final long DELIVERY_DELAY = 100;
+
+    private final ArrayDeque<Update> history = new ArrayDeque<>();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final Timer deliveryTimer = new Timer("Hakbot-JobUpdateBroadcaster", true);
+
+    // Numbering starts from the current time, so ids issued before a restart are never reused
+    private long lastId = System.currentTimeMillis() * 1000;
+
+    private JobUpdateBroadcaster() { }
+
+    /**
+     * Return an instance of the JobUpdateBroadcaster instance
+     * @return a JobUpdateBroadcaster instance
+     */
+    public static JobUpdateBroadcaster getInstance() {
+        return instance;
+    }
+
+    /**
+     * Subscribes to updates of jobs started by the specified API keys.
+     * @param jobUuid the UUID of the only job to receive updates of, or null for all jobs
+     * @param apiKeyIds the ids of the API keys which started the jobs, or null for all jobs
+     * @param lastEventId the id of the last update received by a previous subscription, or 0
+     * @return a Subscription, or null if there are too many subscribers
+     */
+    public synchronized Subscription subscribe(String jobUuid, Set<Long> apiKeyIds, long lastEventId) {
+        if (subscriptions.size() >= MAX_SUBSCRIBERS) {
+            return null;
+        }
+        final Subscription subscription = new Subscription(jobUuid, apiKeyIds, lastId);
+        if (lastEventId > 0) {
+            final Update oldest = history.peekFirst();
+            final long firstRetained = (oldest == null) ? lastId + 1 : oldest.id;
+            if (lastEventId > lastId || lastEventId < firstRetained - 1) {
+                subscription.reset = true;
+            } else {
+                subscription.lastEventId = lastEventId;
+                for (Update update: history) {
+                    if (update.id > lastEventId) {
+                        subscription.add(update);
+                    }
+                }
+            }
+        }
+        if (subscription.reset) {
+            subscription.lastEventId = lastId;
+        } else {
+            subscriptions.add(subscription);
+        }
+        return subscription;
+    }
+
+    /**
+     * Publishes the updates of a job which have been committed
+     * @param state the new state of the job, or null if the state was not changed
+     * @param messages the messages added to the job
+     */
+    synchronized void publish(String jobUuid, long apiKeyId, State state, List<JobMessage> messages) {
+        if (state != null) {
+            broadcast(new Update(++lastId, jobUuid, apiKeyId, Update.STATE, Json.createObjectBuilder()
+                    .add("uuid", jobUuid)
+                    .add("state", state.getValue())));
+        }
+        for (JobMessage message: messages) {
+            broadcast(new Update(++lastId, jobUuid, apiKeyId, Update.MESSAGE, Json.createObjectBuilder()
+                    .add("uuid", jobUuid)
+                    .add("sequence", message.getSequence())
+                    .add("message", message.toString())));
+        }
+    }
+
+    private void broadcast(Update update) {
+        history.addLast(update);
+        if (history.size() > HISTORY_SIZE) {
+            history.removeFirst();
+        }
+        for (Subscription subscription: subscriptions) {
+            subscription.add(update);
+        }
+    }
+
+    /**
+     * Stops notifying subscribers
+     */
+    public void shutdown() {
+        deliveryTimer.cancel();
+    }
+
+    /**
+     * Notified once updates are pending for a subscription, or it must reset
+     */
+    public interface Listener {
+        void ready(Subscription subscription);
+    }
+
+    /**
+     * A single update, formatted as a server-sent event
+     */
+    public static class Update {
+        static final String STATE = "state";
+        static final String MESSAGE = "message";
+
+        private final long id;
+        private final String jobUuid;
+        private final long apiKeyId;
+        private final String event;
+        private final String data;
+
+        private Update(long id, String jobUuid, long apiKeyId, String event, JsonObjectBuilder data) {
+            this.id = id;
+            this.jobUuid = jobUuid;
+            this.apiKeyId = apiKeyId;
+            this.event = event;
+            this.data = data.build().toString();
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return "id: " + id + "\nevent: " + event + "\ndata: " + data + "\n\n";
+        }
+    }
+
+    /**
+     * The updates pending delivery to a single subscriber
+     */
+    public class Subscription {
+        private final String jobUuid;
+        private final Set<Long> apiKeyIds;
+        private final List<Update> updates = new ArrayList<>();
+        private long lastEventId;
+        private boolean reset;
+        private boolean finished;
+        private boolean scheduled;
+        private Listener listener;
+
+        private Subscription(String jobUuid, Set<Long> apiKeyIds, long lastEventId) {
+            this.jobUuid = jobUuid;
+            this.apiKeyIds = apiKeyIds;
+            this.lastEventId = lastEventId;
+        }
+
+        private boolean accepts(Update update) {
+            return (jobUuid == null || jobUuid.equals(update.jobUuid))
+                    && (apiKeyIds == null || apiKeyIds.contains(update.apiKeyId));
+        }
+
+        private synchronized void add(Update update) {
+            if (finished || reset) {
+                return;
+            }
+            // Updates of other jobs are skipped, but a subscriber resuming from here need not see them again
+            lastEventId = update.id;
+            if (!accepts(update)) {
+                return;
+            }
+            if (updates.size() >= BUFFER_SIZE) {
+                reset = true;
+                updates.clear();
+                subscriptions.remove(this);
+            } else {
+                updates.add(update);
+            }
+            notifyListener(reset ? 0 : DELIVERY_DELAY);
+        }
+
+        private void notifyListener(long delay) {
+            if (listener == null || scheduled) {
+                return;
+            }
+            scheduled = true;
+            deliveryTimer.schedule(new TimerTask() {
+                public void run() {
+                    listener.ready(Subscription.this);
+                }
+            }, delay);
+        }
+
+        /**
+         * Sets the listener to notify once updates are pending. If updates are
+         * already pending, it is notified immediately.
+         */
+        public synchronized void setListener(Listener listener) {
+            this.listener = listener;
+            if (reset || !updates.isEmpty()) {
+                notifyListener(0);
+            }
+        }
+
+        /**
+         * Stops receiving updates, and returns those pending. Returns null if the
+         * subscription was already finished, so only one caller delivers them.
+         */
+        public synchronized List<Update> finish() {
+            if (finished) {
+                return null;
+            }
+            finished = true;
+            subscriptions.remove(this);
+            return updates;
+        }
+
+        /**
+         * Returns the id a subscriber resumes after. It may be later than the last update
+         * pending, as updates of jobs the subscriber does not receive are skipped.
+         */
+        public synchronized long getLastEventId() {
+            return lastEventId;
+        }
+
+        /**
+         * Returns true if updates were lost, and the subscriber must reload the jobs it displays
+         */
+        public synchronized boolean isReset() {
+            return reset;
+        }
+    }
+
+}
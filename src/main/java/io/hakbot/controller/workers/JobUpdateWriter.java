@@ -0,0 +1,292 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.workers;
+
+import alpine.Config;
+import alpine.event.framework.EventService;
+import alpine.logging.Logger;
+import io.hakbot.HakbotConfigKey;
+import io.hakbot.controller.event.JobPublishEvent;
+import io.hakbot.controller.event.JobUpdateEvent;
+import io.hakbot.controller.model.Job;
+import io.hakbot.controller.model.JobArtifact;
+import io.hakbot.controller.model.JobMessage;
+import io.hakbot.controller.persistence.QueryManager;
+import org.apache.commons.lang3.StringUtils;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.function.Consumer;
+
+/**
+ * The JobUpdateWriter buffers job updates and writes them to the database in
+ * batches. Updates to the same job are coalesced, so that a job receiving many
+ * messages and state changes within the flush interval is written once. All
+ * jobs updated within the interval are written in a single transaction. If
+ * that transaction fails, each job is written in a transaction of its own.
+ *
+ * Updates to each job are applied in the order they were received. Once a job
+ * has failed, its state is no longer changed. After the transaction commits,
+ * the AdmissionController and the JobManager are informed of the latest state
+ * of each job whose state was updated, and the changes are published to the
+ * JobUpdateBroadcaster. Notifications of jobs which finished are added to the
+ * outbox of the WebhookDispatcher in the same transaction.
+ */
+public class JobUpdateWriter {
+
+    // Setup logging
+    private static final Logger logger = Logger.getLogger(JobUpdateWriter.class);
+
+    // Holds an instance of JobUpdateWriter
+    private static final JobUpdateWriter instance = new JobUpdateWriter();
+
+    // Holds the updates not yet written, keyed by job UUID in the order the jobs were first updated
+    private Map<String, List<JobUpdateEvent>> pending = new LinkedHashMap<>();
+
+    // Ensures that only one batch is written at a time
+    private final Object flushLock = new Object();
+
+    // Defines a scheduled task that writes the pending updates
+    private Timer flushTimer = new Timer("Hakbot-JobUpdateWriter", true);
+
+    private JobUpdateWriter() {
+        long flushInterval = Config.getInstance().getPropertyAsLong(HakbotConfigKey.JOB_UPDATE_FLUSH_INTERVAL); // in Milliseconds
+        flushTimer.schedule(new FlushTask(), flushInterval, flushInterval);
+    }
+
+    /**
+     * Return an instance of the JobUpdateWriter instance
+     * @return a JobUpdateWriter instance
+     */
+    public static JobUpdateWriter getInstance() {
+        return instance;
+    }
+
+    /**
+     * Adds an update to be written with the next batch
+     */
+    public synchronized void enqueue(JobUpdateEvent event) {
+        List<JobUpdateEvent> events = pending.get(event.getJobUuid());
+        if (events == null) {
+            events = new ArrayList<>();
+            pending.put(event.getJobUuid(), events);
+        }
+        events.add(event);
+    }
+
+    private synchronized Map<String, List<JobUpdateEvent>> drain() {
+        Map<String, List<JobUpdateEvent>> batch = pending;
+        pending = new LinkedHashMap<>();
+        return batch;
+    }
+
+    /**
+     * Writes all pending updates in a single transaction. If the transaction fails, the
+     * updates of each job are written in a transaction of their own, so that only the
+     * updates of a job which cannot be written are lost.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            final Map<String, List<JobUpdateEvent>> batch = drain();
+            if (batch.isEmpty()) {
+                return;
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Writing updates for " + batch.size() + " jobs");
+            }
+            try {
+                write(batch);
+            } catch (RuntimeException e) {
+                if (batch.size() == 1) {
+                    logger.error("Unable to write updates for job " + batch.keySet().iterator().next() + ". " + e.getMessage());
+                    return;
+                }
+                logger.warn("Unable to write updates for " + batch.size() + " jobs. Writing each job separately. " + e.getMessage());
+                for (Map.Entry<String, List<JobUpdateEvent>> entry: batch.entrySet()) {
+                    try {
+                        write(Collections.singletonMap(entry.getKey(), entry.getValue()));
+                    } catch (RuntimeException ex) {
+                        logger.error("Unable to write updates for job " + entry.getKey() + ". " + ex.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the updates of the jobs in a single transaction, then informs the other components
+     * of the changes. If the transaction fails, none of the updates are written and the exception
+     * is thrown to the caller.
+     */
+    private void write(final Map<String, List<JobUpdateEvent>> batch) {
+        final Set<String> stateUpdated = new HashSet<>();
+        final Set<String> completed = new HashSet<>();
+        final Map<String, State> previousStates = new HashMap<>();
+        final Map<String, List<JobMessage>> added = new HashMap<>();
+        final Set<String> notified = new HashSet<>();
+        final QueryManager qm = new QueryManager();
+        try {
+            // Throws if the transaction fails
+            List<Job> jobs = qm.updateJobs(batch.keySet(), new Consumer<Job>() {
+                public void accept(Job job) {
+                    previousStates.put(job.getUuid(), job.getState());
+                    MessageLog log = new MessageLog(qm, job);
+                    added.put(job.getUuid(), log.messages);
+                    for (JobUpdateEvent event: batch.get(job.getUuid())) {
+                        State before = job.getState();
+                        if (apply(job, event, log)) {
+                            stateUpdated.add(job.getUuid());
+                            // Notifications are added to the outbox in the same transaction as the change of state
+                            if (job.getState() != before && WebhookDispatcher.isNotifiable(job.getState())
+                                    && qm.addJobNotifications(job, WebhookDispatcher.createPayload(job)) > 0) {
+                                notified.add(job.getUuid());
+                            }
+                        }
+                        if (event.getState() == State.COMPLETED) {
+                            completed.add(job.getUuid());
+                        }
+                    }
+                }
+            });
+
+            // The transaction has committed, so a failure below must not cause the updates to be written again
+            for (Job job: jobs) {
+                try {
+                    for (JobUpdateEvent event: batch.get(job.getUuid())) {
+                        if (event.getResult() != null) {
+                            qm.setJobArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.BINARY.value(), event.getResult().getBytes(), null, null);
+                        }
+                    }
+
+                    // Inform the JobManager so that queued jobs are dispatched without waiting on a poll
+                    if (stateUpdated.contains(job.getUuid())) {
+                        AdmissionController.getInstance().stateChanged(job.getProvider(), previousStates.get(job.getUuid()), job.getState());
+                        JobManager.getInstance().stateChanged(job);
+                    }
+
+                    // Push the changes to clients subscribed to the job update stream
+                    final State previous = previousStates.get(job.getUuid());
+                    JobUpdateBroadcaster.getInstance().publish(job.getUuid(), job.getStartedByApiKeyId(),
+                            (job.getState() != previous) ? job.getState() : null, added.get(job.getUuid()));
+
+                    // Job has been updated, now check if a publisher was defined and if so, send event.
+                    if (completed.contains(job.getUuid()) && !StringUtils.isEmpty(job.getPublisher())) {
+                        // First check to see if provider is sync or async. sync providers will be informed to
+                        // publish here, while async provider will be informed to publish in JobProgressCheckWorker
+                        ExpectedClassResolver resolver = new ExpectedClassResolver();
+                        try {
+                            if (!resolver.resolveProvider(job).isAsynchronous()) {
+                                EventService.getInstance().publish(new JobPublishEvent(job.getUuid()));
+                            }
+                        } catch (ExpectedClassResolverException ex) {
+                            logger.error(ex.getMessage());
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("Unable to complete updates for job " + job.getUuid() + ". " + e.getMessage());
+                }
+            }
+            if (!notified.isEmpty()) {
+                WebhookDispatcher.getInstance().wakeup();
+            }
+        } finally {
+            qm.close();
+        }
+    }
+
+    /**
+     * Applies a single update to a persistent job. Returns true if the state of the job was updated.
+     */
+    private boolean apply(Job job, JobUpdateEvent event, MessageLog log) {
+        if (event.getMessages() != null) {
+            // Messages accompanying a failure are errors
+            JobMessage.Level level = (event.getState() == State.FAILED) ? JobMessage.Level.ERROR : JobMessage.Level.INFO;
+            for (String message: event.getMessages()) {
+                if (StringUtils.isNotBlank(message)) {
+                    log.add(level, message);
+                }
+            }
+        }
+        // Check to see if the job already failed. If so, do not update state anymore
+        if (event.getState() == null || job.getState() == State.FAILED) {
+            return false;
+        }
+        State state = event.getState();
+        if (job.getState() != state) {
+            log.add(JobMessage.Level.INFO, "Job state changed to " + state.getValue());
+        }
+        job.setState(state);
+        if (state == State.CANCELED || state == State.COMPLETED || state == State.FAILED || state == State.PUBLISHED) {
+            job.setCompleted(new Date());
+        } else if (state == State.IN_PROGRESS) {
+            job.setStarted(new Date());
+        } else if (state == State.CREATED) {
+            job.setCreated(new Date());
+        }
+        return true;
+    }
+
+    /**
+     * Appends messages to the log of a single job, numbering them in sequence
+     */
+    private static class MessageLog {
+        private final QueryManager qm;
+        private final Job job;
+        private final List<JobMessage> messages = new ArrayList<>();
+        private long sequence = -1;
+
+        MessageLog(QueryManager qm, Job job) {
+            this.qm = qm;
+            this.job = job;
+        }
+
+        void add(JobMessage.Level level, String text) {
+            if (sequence < 0) {
+                sequence = qm.getLastJobMessageSequence(job);
+            }
+            JobMessage message = new JobMessage(job, ++sequence, level, text);
+            qm.addJobMessage(message);
+            messages.add(message);
+        }
+    }
+
+    /**
+     * Stops the scheduled task and writes the remaining updates
+     */
+    public void shutdown() {
+        flushTimer.cancel();
+        flush();
+    }
+
+    /**
+     * Writes the pending updates
+     */
+    private class FlushTask extends TimerTask {
+        public void run() {
+            flush();
+        }
+    }
+
+}
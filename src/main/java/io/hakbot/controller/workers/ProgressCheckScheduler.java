@@ -0,0 +1,289 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.workers;
+
+import alpine.Config;
+import alpine.event.framework.EventService;
+import alpine.logging.Logger;
+import io.hakbot.HakbotConfigKey;
+import io.hakbot.controller.event.JobBatchProgressCheckEvent;
+import io.hakbot.controller.event.JobProgressCheckEvent;
+import io.hakbot.controller.model.Job;
+import io.hakbot.controller.plugin.PluginDescriptor;
+import io.hakbot.providers.BatchAsynchronousProvider;
+import io.hakbot.providers.Provider;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ProgressCheckScheduler checks on the progress of each in-progress job
+ * of an asynchronous provider on its own schedule. The first check occurs
+ * after the minimum progress check interval. Each subsequent check backs off
+ * exponentially up to the maximum interval, so long-running scans are polled
+ * less often than those that just started. A random jitter is applied to each
+ * delay so that jobs started together are not polled together.
+ *
+ * Providers may supply an estimate of the time remaining for a job, in which
+ * case the next check is scheduled accordingly (within the same bounds).
+ *
+ * The jobs of a BatchAsynchronousProvider having the same batch key share a
+ * single schedule, and are checked together in a JobBatchProgressCheckEvent.
+ * A job joining the group resets its backoff, so the job is first checked
+ * after the minimum interval. An estimate only brings the check of the group
+ * forward.
+ */
+public class ProgressCheckScheduler {
+
+    // Setup logging
+    private static final Logger logger = Logger.getLogger(ProgressCheckScheduler.class);
+
+    // The fraction of each delay that is randomized
+    private static final double JITTER = 0.2;
+
+    // Holds an instance of ProgressCheckScheduler
+    private static final ProgressCheckScheduler instance = new ProgressCheckScheduler();
+
+    // Holds the schedule of each job, keyed by job UUID. Jobs in the same batch share a schedule
+    private final Map<String, Schedule> schedules = new ConcurrentHashMap<>();
+
+    // Holds the schedule of each batch, keyed by provider and batch key. Guarded by itself
+    private final Map<String, Schedule> batches = new HashMap<>();
+
+    // Holds the next check of each schedule, ordered by the time it is due
+    private final DelayQueue<Check> checks = new DelayQueue<>();
+
+    // Identifies the most recent check of each schedule. Checks having an older generation are stale
+    private final AtomicLong generations = new AtomicLong();
+
+    private final long minInterval;
+    private final long maxInterval;
+    private final Thread thread;
+
+    private ProgressCheckScheduler() {
+        this.minInterval = Config.getInstance().getPropertyAsLong(HakbotConfigKey.QUEUE_CHECK_INTERVAL) * 1000; // in Seconds
+        this.maxInterval = Math.max(minInterval, Config.getInstance().getPropertyAsLong(HakbotConfigKey.PROGRESS_CHECK_MAX_INTERVAL) * 1000); // in Seconds
+        this.thread = new Thread(new CheckDispatcher(), "Hakbot-ProgressCheckScheduler");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Return an instance of the ProgressCheckScheduler instance
+     * @return a ProgressCheckScheduler instance
+     */
+    public static ProgressCheckScheduler getInstance() {
+        return instance;
+    }
+
+    /**
+     * Starts checking on the progress of the specified job, if its provider is
+     * asynchronous and the job is not already scheduled.
+     */
+    public void schedule(Job job) {
+        final PluginDescriptor<Provider> descriptor;
+        try {
+            descriptor = new ExpectedClassResolver().resolveProvider(job);
+        } catch (ExpectedClassResolverException e) {
+            logger.error("Unable to schedule progress checks for job " + job.getUuid() + ". " + e.getMessage());
+            return;
+        }
+        if (!descriptor.isAsynchronous()) {
+            return;
+        }
+        String batchKey = null;
+        if (descriptor.isBatch()) {
+            try {
+                batchKey = job.getProvider() + "|" + ((BatchAsynchronousProvider) descriptor.get()).getBatchKey(job);
+            } catch (RuntimeException e) {
+                // The job is checked on its own schedule. Its status is still determined as part of a batch
+                logger.error("Unable to determine the batch of job " + job.getUuid() + ". " + e.getMessage());
+                batchKey = job.getProvider() + "|" + job.getUuid();
+            }
+        }
+        synchronized (batches) {
+            if (schedules.containsKey(job.getUuid())) {
+                return;
+            }
+            Schedule schedule = (batchKey == null) ? null : batches.get(batchKey);
+            if (schedule == null) {
+                schedule = new Schedule(job.getProvider(), batchKey);
+                if (batchKey != null) {
+                    batches.put(batchKey, schedule);
+                }
+            }
+            synchronized (schedule) {
+                schedule.jobUuids.add(job.getUuid());
+                schedules.put(job.getUuid(), schedule);
+                if (schedule.generation == 0 || schedule.due > System.currentTimeMillis() + (long) (minInterval * (1 + JITTER))) {
+                    schedule.attempts = 1;
+                    enqueue(schedule, minInterval);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops checking on the progress of the specified job.
+     */
+    public void cancel(String jobUuid) {
+        synchronized (batches) {
+            final Schedule schedule = schedules.remove(jobUuid);
+            if (schedule == null) {
+                return;
+            }
+            synchronized (schedule) {
+                schedule.jobUuids.remove(jobUuid);
+                if (schedule.jobUuids.isEmpty() && schedule.batchKey != null) {
+                    batches.remove(schedule.batchKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reschedules the next check of a job based on an estimate of the time remaining.
+     * The backoff is reset, so the checks following an estimate start again from the
+     * minimum interval if the job has not completed by then. The check of a batch is
+     * only rescheduled if the estimate is earlier than the check already scheduled.
+     * @param jobUuid the UUID of the job
+     * @param remaining the estimated time remaining (in milliseconds)
+     */
+    public void estimate(String jobUuid, long remaining) {
+        Schedule schedule = schedules.get(jobUuid);
+        if (schedule != null) {
+            synchronized (schedule) {
+                if (schedule.batchKey == null || System.currentTimeMillis() + Math.max(minInterval, remaining) < schedule.due) {
+                    schedule.attempts = 0;
+                    enqueue(schedule, remaining);
+                }
+            }
+        }
+    }
+
+    public void shutdown() {
+        thread.interrupt();
+    }
+
+    /**
+     * Places the next check of a schedule in the queue. Checks previously queued
+     * for the schedule become stale and are discarded when they are due.
+     */
+    private void enqueue(Schedule schedule, long delay) {
+        synchronized (schedule) {
+            delay = Math.min(maxInterval, Math.max(minInterval, delay));
+            long jitter = (long) (delay * JITTER * (ThreadLocalRandom.current().nextDouble() * 2 - 1));
+            schedule.generation = generations.incrementAndGet();
+            schedule.due = System.currentTimeMillis() + delay + jitter;
+            checks.add(new Check(schedule, schedule.generation, schedule.due));
+        }
+    }
+
+    /**
+     * Returns the delay before the next check of a schedule, doubling with each check.
+     */
+    private long nextDelay(Schedule schedule) {
+        synchronized (schedule) {
+            int attempts = Math.min(schedule.attempts++, 30);
+            return minInterval << attempts;
+        }
+    }
+
+    /**
+     * Waits for checks to become due and publishes the events to perform them.
+     */
+    private class CheckDispatcher implements Runnable {
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                final Check check;
+                try {
+                    check = checks.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                final Schedule schedule = check.schedule;
+                final List<String> jobUuids;
+                synchronized (schedule) {
+                    if (!schedule.isCurrent(check) || schedule.jobUuids.isEmpty()) {
+                        continue; // The jobs are no longer in progress or were rescheduled
+                    }
+                    jobUuids = new ArrayList<>(schedule.jobUuids);
+                    enqueue(schedule, nextDelay(schedule));
+                }
+                if (schedule.batchKey != null) {
+                    EventService.getInstance().publish(new JobBatchProgressCheckEvent(schedule.provider, jobUuids));
+                } else {
+                    EventService.getInstance().publish(new JobProgressCheckEvent(jobUuids.get(0)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Holds the progress check schedule of a single job, or of the jobs in a batch
+     */
+    private static class Schedule {
+        private final String provider;
+        private final String batchKey;
+        private final Set<String> jobUuids = new LinkedHashSet<>();
+        private int attempts = 1;
+        private long generation;
+        private long due;
+
+        Schedule(String provider, String batchKey) {
+            this.provider = provider;
+            this.batchKey = batchKey;
+        }
+
+        synchronized boolean isCurrent(Check check) {
+            return generation == check.generation;
+        }
+    }
+
+    /**
+     * A progress check that is due at a specific time
+     */
+    private static class Check implements Delayed {
+        private final Schedule schedule;
+        private final long generation;
+        private final long due;
+
+        Check(Schedule schedule, long generation, long due) {
+            this.schedule = schedule;
+            this.generation = generation;
+            this.due = due;
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(due - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        public int compareTo(Delayed o) {
+            return Long.compare(due, ((Check) o).due);
+        }
+    }
+
+}
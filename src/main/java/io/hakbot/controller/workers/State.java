@@ -49,7 +49,7 @@ public enum	State {
     public static State parse(String stateName) {
         State state = null; // Default
         for (State item : State.values()) {
-            if (item.getValue().equalsIgnoreCase(stateName)) {
+            if (item.getValue().equalsIgnoreCase(stateName) || item.name().equalsIgnoreCase(stateName)) {
                 state = item;
                 break;
             }
@@ -0,0 +1,373 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.controller.workers;
+
+import alpine.Config;
+import alpine.logging.Logger;
+import io.hakbot.HakbotConfigKey;
+import io.hakbot.controller.model.Job;
+import io.hakbot.controller.model.JobNotification;
+import io.hakbot.controller.persistence.QueryManager;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The WebhookDispatcher delivers notifications of finished jobs to their callback URLs.
+ * Notifications are added to an outbox in the database by the JobUpdateWriter, in the same
+ * transaction as the change of state they describe, and are removed once delivered. The
+ * outbox is checked periodically and whenever notifications are added, so notifications
+ * added before a restart are delivered after it.
+ *
+ * Notifications to the same URL are sent together as a JSON array, in the order they were
+ * added. URLs are delivered to in parallel, using a pool of connections limited per host.
+ * When delivery to a URL fails, all notifications pending to that URL wait for the next
+ * attempt, so they stay in order. The delay between attempts grows exponentially with the
+ * failed attempts of the oldest notification, which is discarded after a maximum number.
+ */
+public class WebhookDispatcher {
+
+    // Setup logging
+    private static final Logger logger = Logger.getLogger(WebhookDispatcher.class);
+
+    // Holds an instance of WebhookDispatcher
+    private static final WebhookDispatcher instance = new WebhookDispatcher();
+
+    // The maximum number of notifications read from the outbox at a time
+    private static final int FETCH_SIZE = 500;
+
+    // The maximum number of notifications sent in a single request
+    private static final int BATCH_SIZE = 50;
+
+    private static final int DELIVERY_THREADS = 4;
+    private static final int MAX_CONNECTIONS_PER_HOST = 2;
+    private static final int CONNECT_TIMEOUT = 10 * 1000;
+    private static final int SOCKET_TIMEOUT = 30 * 1000;
+    private static final long INITIAL_RETRY_DELAY = 30 * 1000;
+    private static final long MAX_RETRY_DELAY = 60 * 60 * 1000;
+
+    private final int maxAttempts;
+    private volatile Set<String> allowedHosts;
+    private final CloseableHttpClient client;
+    private final ExecutorService executor = Executors.newFixedThreadPool(DELIVERY_THREADS);
+
+    // Defines a scheduled task that delivers the notifications due
+    private final Timer deliveryTimer = new Timer("Hakbot-WebhookDispatcher", true);
+
+    // Set while a delivery requested by wakeup() has yet to start
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+    private WebhookDispatcher() {
+        this.maxAttempts = Config.getInstance().getPropertyAsInt(HakbotConfigKey.WEBHOOK_MAX_ATTEMPTS);
+        final String[] hosts = StringUtils.split(Config.getInstance().getProperty(HakbotConfigKey.WEBHOOK_ALLOWED_HOSTS), ",");
+        setAllowedHosts((hosts == null) ? Collections.<String>emptyList() : Arrays.asList(hosts));
+        // Hosts are checked again as they are resolved for each connection, in case their addresses have changed
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+                RegistryBuilder.<ConnectionSocketFactory>create()
+                        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                        .register("https", SSLConnectionSocketFactory.getSocketFactory())
+                        .build(),
+                new DnsResolver() {
+                    public InetAddress[] resolve(String host) throws UnknownHostException {
+                        final InetAddress[] addresses = InetAddress.getAllByName(host);
+                        if (!isPermittedHost(host, addresses)) {
+                            throw new UnknownHostException("Notifications to " + host + " are not permitted");
+                        }
+                        return addresses;
+                    }
+                });
+        connectionManager.setMaxTotal(DELIVERY_THREADS * MAX_CONNECTIONS_PER_HOST);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_HOST);
+        this.client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(CONNECT_TIMEOUT)
+                        .setConnectionRequestTimeout(CONNECT_TIMEOUT)
+                        .setSocketTimeout(SOCKET_TIMEOUT)
+                        .build())
+                .disableAutomaticRetries()
+                .build();
+        long pollInterval = Config.getInstance().getPropertyAsLong(HakbotConfigKey.WEBHOOK_POLL_INTERVAL) * 1000; // in Milliseconds
+        deliveryTimer.schedule(new DeliveryTask(), pollInterval, pollInterval);
+    }
+
+    /**
+     * Return an instance of the WebhookDispatcher instance
+     * @return a WebhookDispatcher instance
+     */
+    public static WebhookDispatcher getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns true if the callback URLs of a job are notified when it changes to the specified state
+     */
+    static boolean isNotifiable(State state) {
+        return state == State.COMPLETED || state == State.PUBLISHED || state == State.FAILED || state == State.CANCELED;
+    }
+
+    /**
+     * Replaces the hosts which are permitted whatever addresses they resolve to. Configured by
+     * hakbot.webhook.allowed.hosts, and replaced by tests which deliver to a loopback address.
+     */
+    public void setAllowedHosts(Collection<String> hosts) {
+        final Set<String> allowed = new HashSet<>();
+        for (String host: hosts) {
+            allowed.add(host.trim().toLowerCase());
+        }
+        this.allowedHosts = allowed;
+    }
+
+    /**
+     * Returns true if notifications may be sent to the host. A host which resolves to a loopback,
+     * link-local, private or multicast address is only permitted if it is in the allowed hosts.
+     */
+    public boolean isPermittedHost(String host) {
+        try {
+            return isPermittedHost(host, InetAddress.getAllByName(host));
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    private boolean isPermittedHost(String host, InetAddress[] addresses) {
+        if (allowedHosts.contains(host.toLowerCase())) {
+            return true;
+        }
+        for (InetAddress address: addresses) {
+            if (address.isLoopbackAddress() || address.isLinkLocalAddress() || address.isSiteLocalAddress()
+                    || address.isAnyLocalAddress() || address.isMulticastAddress()
+                    || (address instanceof Inet6Address && (address.getAddress()[0] & 0xfe) == 0xfc)) { // unique local
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the notification of the current state of a job
+     */
+    static String createPayload(Job job) {
+        final JsonObjectBuilder payload = Json.createObjectBuilder()
+                .add("uuid", job.getUuid())
+                .add("name", job.getName())
+                .add("state", job.getState().getValue())
+                .add("provider", job.getProvider());
+        if (job.getPublisher() != null) {
+            payload.add("publisher", job.getPublisher());
+        }
+        return payload.add("timestamp", System.currentTimeMillis()).build().toString();
+    }
+
+    /**
+     * Delivers the notifications due without waiting for the next scheduled check
+     */
+    public void wakeup() {
+        if (wakeupPending.compareAndSet(false, true)) {
+            try {
+                deliveryTimer.schedule(new DeliveryTask(), 0);
+            } catch (IllegalStateException e) {
+                // The dispatcher has been shut down. Notifications remain in the outbox
+                wakeupPending.set(false);
+            }
+        }
+    }
+
+    /**
+     * Delivers the notifications due, and records the outcome of each in the outbox.
+     * Only called by the delivery timer, so deliveries do not overlap.
+     */
+    private void deliver() {
+        final Map<String, List<Pending>> byUrl = new LinkedHashMap<>();
+        final QueryManager qm = new QueryManager();
+        try {
+            for (JobNotification notification: qm.getDueJobNotifications(new Date(), FETCH_SIZE)) {
+                List<Pending> pending = byUrl.get(notification.getUrl());
+                if (pending == null) {
+                    pending = new ArrayList<>();
+                    byUrl.put(notification.getUrl(), pending);
+                }
+                pending.add(new Pending(notification));
+            }
+            if (byUrl.isEmpty()) {
+                return;
+            }
+            final Map<String, Future<Set<Long>>> deliveries = new LinkedHashMap<>();
+            for (final Map.Entry<String, List<Pending>> entry: byUrl.entrySet()) {
+                deliveries.put(entry.getKey(), executor.submit(new Callable<Set<Long>>() {
+                    public Set<Long> call() {
+                        return deliver(entry.getKey(), entry.getValue());
+                    }
+                }));
+            }
+
+            final List<Long> finished = new ArrayList<>();
+            final Map<String, Pending> failed = new LinkedHashMap<>();
+            for (Map.Entry<String, Future<Set<Long>>> entry: deliveries.entrySet()) {
+                Set<Long> delivered;
+                try {
+                    delivered = entry.getValue().get();
+                } catch (ExecutionException e) {
+                    logger.error("Unable to deliver notifications to " + entry.getKey() + ". " + e.getCause().getMessage());
+                    delivered = new HashSet<>();
+                }
+                // Notifications are delivered in order, so the first not delivered is the head of the URL's queue
+                for (Pending pending: byUrl.get(entry.getKey())) {
+                    if (!delivered.contains(pending.id)) {
+                        if (pending.attempts + 1 >= maxAttempts) {
+                            logger.warn("Discarding notification to " + entry.getKey() + " after " + maxAttempts + " attempts: " + pending.payload);
+                            finished.add(pending.id);
+                        }
+                        failed.put(entry.getKey(), pending);
+                        break;
+                    }
+                    finished.add(pending.id);
+                }
+            }
+            qm.deleteJobNotifications(finished);
+            // The whole URL backs off, so later notifications are not delivered ahead of the head
+            final long now = System.currentTimeMillis();
+            for (Map.Entry<String, Pending> entry: failed.entrySet()) {
+                final Pending head = entry.getValue();
+                final long delay = Math.min(MAX_RETRY_DELAY, INITIAL_RETRY_DELAY << Math.min(head.attempts, 20));
+                qm.rescheduleJobNotifications(entry.getKey(), head.id, new Date(now + delay));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.error("Unable to deliver notifications. " + e.getMessage());
+        } finally {
+            qm.close();
+        }
+    }
+
+    /**
+     * Sends notifications to a single URL in batches, stopping at the first batch which fails
+     * so that the remainder are retried in order.
+     * @return the ids of the notifications delivered
+     */
+    private Set<Long> deliver(String url, List<Pending> notifications) {
+        final Set<Long> delivered = new HashSet<>();
+        for (int start = 0; start < notifications.size(); start += BATCH_SIZE) {
+            final List<Pending> batch = notifications.subList(start, Math.min(start + BATCH_SIZE, notifications.size()));
+            final StringBuilder body = new StringBuilder("[");
+            for (Pending pending: batch) {
+                if (body.length() > 1) {
+                    body.append(",");
+                }
+                body.append(pending.payload);
+            }
+            body.append("]");
+            final HttpPost request = new HttpPost(url);
+            request.setEntity(new StringEntity(body.toString(), ContentType.APPLICATION_JSON));
+            try {
+                final HttpResponse response = client.execute(request);
+                // Consume the response, so the connection is returned to the pool
+                EntityUtils.consumeQuietly(response.getEntity());
+                final int status = response.getStatusLine().getStatusCode();
+                if (status < 200 || status >= 300) {
+                    logger.warn("Notification of " + url + " failed. Status: " + status);
+                    break;
+                }
+            } catch (IOException e) {
+                logger.warn("Notification of " + url + " failed. " + e.getMessage());
+                break;
+            } finally {
+                request.releaseConnection();
+            }
+            for (Pending pending: batch) {
+                delivered.add(pending.id);
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Stops the scheduled task. Notifications not yet delivered remain in the outbox
+     */
+    public void shutdown() {
+        deliveryTimer.cancel();
+        executor.shutdownNow();
+        try {
+            client.close();
+        } catch (IOException e) {
+            logger.error("Unable to close HTTP client. " + e.getMessage());
+        }
+    }
+
+    /**
+     * The parts of a notification needed to deliver it, detached from the QueryManager which read it
+     */
+    private static class Pending {
+        private final long id;
+        private final int attempts;
+        private final String payload;
+
+        Pending(JobNotification notification) {
+            this.id = notification.getId();
+            this.attempts = notification.getAttempts();
+            this.payload = notification.getPayload();
+        }
+    }
+
+    /**
+     * Delivers the notifications due
+     */
+    private class DeliveryTask extends TimerTask {
+        public void run() {
+            wakeupPending.set(false);
+            deliver();
+        }
+    }
+
+}
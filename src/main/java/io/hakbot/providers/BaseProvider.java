@@ -18,6 +18,7 @@ package io.hakbot.providers;
 
 import io.hakbot.controller.model.Job;
 import io.hakbot.controller.plugin.BasePlugin;
+import io.hakbot.controller.workers.ProgressCheckScheduler;
 
 public abstract class BaseProvider extends BasePlugin implements Provider {
 
@@ -54,4 +55,25 @@ public abstract class BaseProvider extends BasePlugin implements Provider {
         return true;
     }
 
+    /**
+     * Informs the controller of the estimated time remaining for an asynchronous
+     * job, so that the next progress check can be scheduled accordingly. Without
+     * an estimate, progress checks back off the longer the job runs.
+     */
+    protected void setEstimatedTimeRemaining(Job job, long millis) {
+        ProgressCheckScheduler.getInstance().estimate(job.getUuid(), millis);
+    }
+
+    /**
+     * Informs the controller of the progress (in percent) of an asynchronous job.
+     * The time remaining is estimated from the time the job has been running.
+     */
+    protected void setProgress(Job job, int percent) {
+        if (percent <= 0 || percent >= 100 || job.getStarted() == null) {
+            return;
+        }
+        long elapsed = System.currentTimeMillis() - job.getStarted().getTime();
+        setEstimatedTimeRemaining(job, elapsed * (100 - percent) / percent);
+    }
+
 }
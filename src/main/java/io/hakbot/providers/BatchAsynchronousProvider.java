@@ -0,0 +1,44 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.providers;
+
+import io.hakbot.controller.model.Job;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An AsynchronousProvider which is able to determine the status of many jobs
+ * with a single request to the remote instance running them. Rather than
+ * checking the progress of each job individually, in-progress jobs of a batch
+ * provider are grouped by batch key and each group is checked at once.
+ */
+public interface BatchAsynchronousProvider extends AsynchronousProvider {
+
+    /**
+     * Returns a key identifying the remote instance running the specified job.
+     * Jobs having the same key are checked in the same batch.
+     */
+    String getBatchKey(Job job);
+
+    /**
+     * Determines which of the specified jobs are still running. All jobs have the
+     * same batch key. The returned map is keyed by job UUID. Jobs whose status could
+     * not be determined should be omitted and will be checked again later.
+     */
+    Map<String, Boolean> isRunning(List<Job> jobs);
+
+}
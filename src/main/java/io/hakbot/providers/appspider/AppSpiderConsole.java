@@ -22,7 +22,6 @@ import io.hakbot.controller.model.Job;
 import io.hakbot.controller.plugin.BasePlugin;
 import io.hakbot.controller.plugin.Console;
 import io.hakbot.controller.plugin.RemoteInstance;
-import io.hakbot.providers.appspider.ws.NTOService;
 import io.hakbot.providers.appspider.ws.NTOServiceSoap;
 
 import java.util.Map;
@@ -35,10 +34,14 @@ public class AppSpiderConsole extends BasePlugin implements Console {
 
     public Object console(Job job, Map parameters) {
         RemoteInstance remoteInstance = getRemoteInstance(job);
-        NTOService service = new NTOService(remoteInstance.getURL(), AppSpiderConstants.SERVICE_NAME);
-        NTOServiceSoap soap = service.getNTOServiceSoap();
-        String token = UuidUtil.stripHyphens(job.getUuid());
-        return soap.getStatus2(remoteInstance.getUsername(), remoteInstance.getPassword(), token);
+        NTOServicePortPool ports = NTOServicePortPool.get(remoteInstance);
+        NTOServiceSoap soap = ports.borrow();
+        try {
+            String token = UuidUtil.stripHyphens(job.getUuid());
+            return soap.getStatus2(remoteInstance.getUsername(), remoteInstance.getPassword(), token);
+        } finally {
+            ports.release(soap);
+        }
     }
 
 }
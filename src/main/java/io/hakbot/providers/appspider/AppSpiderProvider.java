@@ -23,16 +23,15 @@ import io.hakbot.controller.model.JobArtifact;
 import io.hakbot.controller.plugin.Console;
 import io.hakbot.controller.plugin.ConsoleIdentifier;
 import io.hakbot.controller.plugin.RemoteInstance;
-import io.hakbot.controller.plugin.RemoteInstanceAutoConfig;
+import io.hakbot.controller.plugin.RemoteInstancePool;
+import io.hakbot.controller.plugin.RemoteInstanceRegistry;
 import io.hakbot.controller.workers.State;
 import io.hakbot.providers.AsynchronousProvider;
 import io.hakbot.providers.BaseProvider;
-import io.hakbot.providers.appspider.ws.NTOService;
 import io.hakbot.providers.appspider.ws.NTOServiceSoap;
 import io.hakbot.providers.appspider.ws.Result;
 import io.hakbot.providers.appspider.ws.SCANSTATUS2;
 import io.hakbot.util.JsonUtil;
-import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
@@ -45,36 +44,48 @@ import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.util.Base64;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 public class AppSpiderProvider extends BaseProvider implements AsynchronousProvider, ConsoleIdentifier {
 
     // Setup logging
     private static final Logger logger = Logger.getLogger(AppSpiderProvider.class);
 
-    private static Map<String, RemoteInstance> instanceMap = new RemoteInstanceAutoConfig().
-            createMap(Type.PROVIDER, AppSpiderConstants.PLUGIN_ID);
-
-
     @Override
     public boolean initialize(Job job) {
         JsonObject payload = JsonUtil.toJsonObject(getProviderPayload(job).getContents());
-        if (!JsonUtil.requiredParams(payload, "instance", "scanConfig")) {
-            addProcessingMessage(job, "Invalid request. Expected parameters: [instance], [config]");
+        String poolAlias = JsonUtil.getString(payload, "pool");
+        if (poolAlias == null) {
+            poolAlias = JsonUtil.getString(payload, "instance");
+        }
+        if (poolAlias == null || !JsonUtil.requiredParams(payload, "scanConfig")) {
+            addProcessingMessage(job, "Invalid request. Expected parameters: [instance] or [pool], [scanConfig]");
             return false;
         }
-        RemoteInstance remoteInstance = instanceMap.get(JsonUtil.getString(payload, "instance"));
-        if (remoteInstance == null) {
+        if (!getPools().containsKey(poolAlias)) {
+            addProcessingMessage(job, "The instance or pool specified does not exist: " + poolAlias);
             return false;
         }
-        // Save the remote instance used for this job
-        setRemoteInstance(job, remoteInstance);
+        // Save the pool used for this job. The remote instance is assigned when a slot is available
+        setJobProperty(job, "pool", poolAlias);
         return true;
     }
 
     public void process(Job job) {
+        try {
+            submit(job);
+        } catch (RuntimeException e) {
+            releaseSlot(job);
+            throw e;
+        }
+    }
+
+    private void submit(Job job) {
         // Retrieve payload and extract scan config (which is currently Base64 encoded)
         JsonObject payload = JsonUtil.toJsonObject(getProviderPayload(job).getContents());
         String scanConfig = JsonUtil.getString(payload, "scanConfig");
@@ -82,9 +93,6 @@ public class AppSpiderProvider extends BaseProvider implements AsynchronousProvi
         // Retrieve the remote instance defined during initialization
         RemoteInstance remoteInstance = getRemoteInstance(job);
 
-        NTOService service = new NTOService(remoteInstance.getURL(), AppSpiderConstants.SERVICE_NAME);
-        NTOServiceSoap soap = service.getNTOServiceSoap();
-
         // Retrieve UUID from job and use it as the AppSpider scan token
         String token = UuidUtil.stripHyphens(job.getUuid());
         setJobProperty(job, "token", token);
@@ -97,20 +105,50 @@ public class AppSpiderProvider extends BaseProvider implements AsynchronousProvi
         setJobProperty(job, "scanName", scanName);
 
         // Submit the scan request
-        Result submitResult = soap.runScanXml(remoteInstance.getUsername(), remoteInstance.getPassword(), token, decodedScanConfig, null, null);
+        NTOServicePortPool ports = NTOServicePortPool.get(remoteInstance);
+        NTOServiceSoap soap = ports.borrow();
+        Result submitResult;
+        try {
+            submitResult = soap.runScanXml(remoteInstance.getUsername(), remoteInstance.getPassword(), token, decodedScanConfig, null, null);
+        } finally {
+            ports.release(soap);
+        }
         if (!submitResult.isSuccess()) {
+            releaseSlot(job);
             updateState(job, State.FAILED, "Failed to execute AppSpider job", submitResult.getErrorDescription());
         }
     }
 
     public boolean isRunning(Job job) {
-        // Retrieve the remote instance defined during initialization
+        // Retrieve the remote instance assigned when the job became available
         RemoteInstance remoteInstance = getRemoteInstance(job);
         String token = getJobProperty(job, "token");
-        NTOService service = new NTOService(remoteInstance.getURL(), AppSpiderConstants.SERVICE_NAME);
-        NTOServiceSoap soap = service.getNTOServiceSoap();
-        Result runningResult = soap.isScanRunning(remoteInstance.getUsername(), remoteInstance.getPassword(), token);
-        return !runningResult.getData().equalsIgnoreCase("false");
+        NTOServicePortPool ports = NTOServicePortPool.get(remoteInstance);
+        NTOServiceSoap soap = ports.borrow();
+        boolean running;
+        try {
+            Result runningResult = soap.isScanRunning(remoteInstance.getUsername(), remoteInstance.getPassword(), token);
+            running = !runningResult.getData().equalsIgnoreCase("false");
+            if (running) {
+                // Provide the progress of the scan so the next check can be scheduled near its completion
+                SCANSTATUS2 scanStatus2 = soap.getStatus2(remoteInstance.getUsername(), remoteInstance.getPassword(), token);
+                if (scanStatus2 != null && scanStatus2.getStatus2() != null) {
+                    setProgress(job, scanStatus2.getStatus2().getMIScanProgress());
+                }
+            }
+        } finally {
+            ports.release(soap);
+        }
+        RemoteInstancePool pool = getPools().get(remoteInstance.getAlias());
+        if (pool != null) {
+            if (running) {
+                // Re-establishes tracking of scans started before a restart
+                pool.track(remoteInstance, job.getUuid());
+            } else {
+                pool.release(job.getUuid());
+            }
+        }
+        return running;
     }
 
     @Override
@@ -119,10 +157,15 @@ public class AppSpiderProvider extends BaseProvider implements AsynchronousProvi
         RemoteInstance remoteInstance = getRemoteInstance(job);
         String token = getJobProperty(job, "token");
 
-        NTOService service = new NTOService(remoteInstance.getURL(), AppSpiderConstants.SERVICE_NAME);
-        NTOServiceSoap soap = service.getNTOServiceSoap();
         // Get the scan date and create the 'format' of the date that will be used in the URL
-        SCANSTATUS2 scanStatus2 = soap.getStatus2(remoteInstance.getUsername(), remoteInstance.getPassword(), token);
+        NTOServicePortPool ports = NTOServicePortPool.get(remoteInstance);
+        NTOServiceSoap soap = ports.borrow();
+        SCANSTATUS2 scanStatus2;
+        try {
+            scanStatus2 = soap.getStatus2(remoteInstance.getUsername(), remoteInstance.getPassword(), token);
+        } finally {
+            ports.release(soap);
+        }
         XMLGregorianCalendar startTime = scanStatus2.getStartTime();
         String dirDate =
                 startTime.getYear() + "_" +
@@ -149,38 +192,98 @@ public class AppSpiderProvider extends BaseProvider implements AsynchronousProvi
                 updateState(job, State.FAILED, "Unable to download report file. Status Code: " + statusLine.getStatusCode());
             }
 
-            // Convert result to byte array and save it
-            byte[] results = IOUtils.toByteArray(entity.getContent());
-            addArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.XML.value(), results, "VulnerabilitySummary_" + job.getUuid() + ".xml" );
+            // Stream the result into the artifact store
+            try (InputStream results = entity.getContent()) {
+                addArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.XML.value(), results, "VulnerabilitySummary_" + job.getUuid() + ".xml" );
+            }
         } catch (IOException e) {
             updateState(job, State.FAILED, "Unable to get scan result", e.getMessage());
         }
     }
 
     public boolean cancel(Job job) {
-        // Retrieve the remote instance defined during initialization
+        // Retrieve the remote instance assigned when the job became available
         RemoteInstance remoteInstance = getRemoteInstance(job);
 
         updateState(job, State.CANCELED);
-        NTOService service = new NTOService(remoteInstance.getURL(), AppSpiderConstants.SERVICE_NAME);
-        NTOServiceSoap soap = service.getNTOServiceSoap();
-        String token = UuidUtil.stripHyphens(job.getUuid());
-        Result running = soap.isScanRunning(remoteInstance.getUsername(), remoteInstance.getPassword(), token);
-        if (running.getData().equalsIgnoreCase("true")) {
-            Result cancel = soap.stopScan(remoteInstance.getUsername(), remoteInstance.getPassword(), token, false);
-            return cancel.isSuccess();
+        if (remoteInstance == null) {
+            // The job was never assigned to a remote instance
+            return true;
+        }
+        releaseSlot(job);
+        NTOServicePortPool ports = NTOServicePortPool.get(remoteInstance);
+        NTOServiceSoap soap = ports.borrow();
+        try {
+            String token = UuidUtil.stripHyphens(job.getUuid());
+            Result running = soap.isScanRunning(remoteInstance.getUsername(), remoteInstance.getPassword(), token);
+            if (running.getData().equalsIgnoreCase("true")) {
+                Result cancel = soap.stopScan(remoteInstance.getUsername(), remoteInstance.getPassword(), token, false);
+                return cancel.isSuccess();
+            }
+            return false;
+        } finally {
+            ports.release(soap);
         }
-        return false;
     }
 
+    /**
+     * Assigns the job to the least-loaded instance in its pool which has a free slot.
+     * Slots are tracked locally. An instance with no other scans from Hakbot is asked
+     * once whether it is busy, in case it is running scans submitted elsewhere. If so,
+     * the next least-loaded instance is tried.
+     */
     @Override
     public boolean isAvailable(Job job) {
-        // Retrieve the remote instance defined during initialization
-        RemoteInstance remoteInstance = getRemoteInstance(job);
+        RemoteInstancePool pool = getPools().get(getJobProperty(job, "pool"));
+        if (pool == null) {
+            return false;
+        }
+        Set<String> busy = new HashSet<>();
+        RemoteInstance remoteInstance;
+        while ((remoteInstance = pool.acquire(job.getUuid(), busy)) != null) {
+            boolean busyElsewhere = false;
+            if (pool.getLoad(remoteInstance) == 1) {
+                NTOServicePortPool ports = NTOServicePortPool.get(remoteInstance);
+                NTOServiceSoap soap = ports.borrow();
+                try {
+                    busyElsewhere = soap.isBusy(remoteInstance.getUsername(), remoteInstance.getPassword());
+                } finally {
+                    ports.release(soap);
+                }
+            }
+            if (!busyElsewhere) {
+                // Save the remote instance used for this job
+                setRemoteInstance(job, remoteInstance);
+                return true;
+            }
+            pool.release(job.getUuid());
+            busy.add(remoteInstance.getAlias());
+        }
+        return false;
+    }
+
+    /**
+     * Frees the slot held by the job on its remote instance.
+     */
+    private void releaseSlot(Job job) {
+        RemoteInstancePool pool = getPools().get(getJobProperty(job, "pool"));
+        if (pool == null) {
+            // Jobs submitted before pools were introduced only have a remote instance
+            RemoteInstance remoteInstance = getRemoteInstance(job);
+            if (remoteInstance != null) {
+                pool = getPools().get(remoteInstance.getAlias());
+            }
+        }
+        if (pool != null) {
+            pool.release(job.getUuid());
+        }
+    }
 
-        NTOService service = new NTOService(remoteInstance.getURL(), AppSpiderConstants.SERVICE_NAME);
-        NTOServiceSoap soap = service.getNTOServiceSoap();
-        return !soap.isBusy(remoteInstance.getUsername(), remoteInstance.getPassword());
+    /**
+     * Each instance is a pool of its own. Additional pools may group several instances
+     */
+    private static Map<String, RemoteInstancePool> getPools() {
+        return RemoteInstanceRegistry.getInstance().getPools(Type.PROVIDER, AppSpiderConstants.PLUGIN_ID);
     }
 
     public String getName() {
@@ -0,0 +1,133 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.providers.appspider;
+
+import alpine.Config;
+import alpine.logging.Logger;
+import io.hakbot.controller.plugin.RemoteInstance;
+import io.hakbot.providers.appspider.ws.NTOService;
+import io.hakbot.providers.appspider.ws.NTOServiceSoap;
+import org.apache.commons.lang3.StringUtils;
+import javax.xml.ws.BindingProvider;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * Holds reusable NTOServiceSoap ports for a single AppSpider instance. Creating an
+ * NTOService parses the WSDL, and creating a port builds a JAX-WS proxy, both of which
+ * are expensive. The service is created once per instance, and ports are created on
+ * demand and returned to the pool after use. A port is used by one thread at a time.
+ *
+ * The WSDL is read from the classpath (appspider/NTOService.wsdl) if bundled, and
+ * from the instance otherwise. The endpoint address of each port is set to the URL
+ * of the instance, so a bundled WSDL may be shared by all instances.
+ */
+final class NTOServicePortPool {
+
+    // Setup logging
+    private static final Logger logger = Logger.getLogger(NTOServicePortPool.class);
+
+    private static final String BUNDLED_WSDL = "/appspider/NTOService.wsdl";
+    private static final int MAX_IDLE_PORTS = 8;
+    private static final int CONNECT_TIMEOUT = getTimeout("provider.appspider.connect.timeout", 10000);
+    private static final int REQUEST_TIMEOUT = getTimeout("provider.appspider.request.timeout", 60000);
+
+    private static final Map<String, NTOServicePortPool> pools = new ConcurrentHashMap<>();
+
+    private final URL url;
+    private final LinkedBlockingDeque<NTOServiceSoap> idle = new LinkedBlockingDeque<>();
+    private volatile NTOService service;
+
+    private NTOServicePortPool(URL url) {
+        this.url = url;
+    }
+
+    /**
+     * Returns the pool of ports for the specified instance
+     */
+    static NTOServicePortPool get(RemoteInstance remoteInstance) {
+        NTOServicePortPool pool = pools.get(remoteInstance.getUrl());
+        if (pool == null) {
+            pool = new NTOServicePortPool(remoteInstance.getURL());
+            NTOServicePortPool existing = pools.putIfAbsent(remoteInstance.getUrl(), pool);
+            if (existing != null) {
+                pool = existing;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Takes a port from the pool, creating one if none is idle. The port must be
+     * returned with {@link #release(NTOServiceSoap)} once the call has completed.
+     */
+    NTOServiceSoap borrow() {
+        NTOServiceSoap port = idle.pollFirst();
+        return (port != null) ? port : createPort();
+    }
+
+    /**
+     * Returns a port to the pool
+     */
+    void release(NTOServiceSoap port) {
+        if (port != null && idle.size() < MAX_IDLE_PORTS) {
+            idle.offerFirst(port);
+        }
+    }
+
+    private NTOServiceSoap createPort() {
+        NTOServiceSoap port = getService().getNTOServiceSoap();
+        Map<String, Object> context = ((BindingProvider) port).getRequestContext();
+        context.put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, getEndpointAddress());
+        // Connections are kept alive by the underlying HttpURLConnection
+        context.put("com.sun.xml.ws.connect.timeout", CONNECT_TIMEOUT);
+        context.put("com.sun.xml.ws.request.timeout", REQUEST_TIMEOUT);
+        context.put("com.sun.xml.internal.ws.connect.timeout", CONNECT_TIMEOUT);
+        context.put("com.sun.xml.internal.ws.request.timeout", REQUEST_TIMEOUT);
+        return port;
+    }
+
+    private NTOService getService() {
+        if (service == null) {
+            synchronized (this) {
+                if (service == null) {
+                    URL wsdl = NTOServicePortPool.class.getResource(BUNDLED_WSDL);
+                    if (wsdl == null) {
+                        logger.debug("No bundled WSDL found. Retrieving WSDL from " + url);
+                        wsdl = url;
+                    }
+                    service = new NTOService(wsdl, AppSpiderConstants.SERVICE_NAME);
+                }
+            }
+        }
+        return service;
+    }
+
+    private String getEndpointAddress() {
+        String address = url.toExternalForm();
+        int query = address.indexOf('?');
+        return (query < 0) ? address : address.substring(0, query);
+    }
+
+    private static int getTimeout(String key, int defaultValue) {
+        String value = StringUtils.trimToNull(Config.getInstance().getProperty(key));
+        return (value == null) ? defaultValue : Integer.parseInt(value);
+    }
+
+}
@@ -21,10 +21,10 @@ import io.hakbot.controller.model.Job;
 import io.hakbot.controller.plugin.BasePlugin;
 import io.hakbot.controller.plugin.Console;
 import io.hakbot.controller.plugin.RemoteInstance;
-import net.continuumsecurity.ClientFactory;
 import net.continuumsecurity.v6.ScanClientV6;
 import javax.json.JsonObject;
 import javax.security.auth.login.LoginException;
+import java.io.IOException;
 import java.util.Map;
 
 public class NessusConsole extends BasePlugin implements Console {
@@ -34,14 +34,15 @@ public class NessusConsole extends BasePlugin implements Console {
 
     public Object console(Job job, Map parameters) {
         RemoteInstance remoteInstance = getRemoteInstance(job);
-        String scanId = getJobProperty(job, NessusConstants.PROP_SCAN_ID);
+        final String scanId = getJobProperty(job, NessusConstants.PROP_SCAN_ID);
         try {
-            ScanClientV6 scan = (ScanClientV6) ClientFactory.createScanClient(remoteInstance.getUrl(), 6, !remoteInstance.isValidateCertificates());
-            scan.login(remoteInstance.getUsername(), remoteInstance.getPassword());
-            JsonObject details = scan.getScanDetails(scanId);
-            scan.logout();
+            JsonObject details = NessusSessionManager.get(remoteInstance).execute(new NessusSessionManager.Request<JsonObject>() {
+                public JsonObject execute(ScanClientV6 scan) {
+                    return scan.getScanDetails(scanId);
+                }
+            });
             return details.toString();
-        } catch (LoginException e) {
+        } catch (LoginException | IOException e) {
             logger.error(e.getMessage());
         }
         return null;
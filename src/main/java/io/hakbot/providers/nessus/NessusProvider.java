@@ -16,35 +16,52 @@
  */
 package io.hakbot.providers.nessus;
 
+import alpine.Config;
 import alpine.logging.Logger;
 import io.hakbot.controller.model.Job;
 import io.hakbot.controller.model.JobArtifact;
+import io.hakbot.controller.persistence.ArtifactStore;
 import io.hakbot.controller.plugin.Console;
 import io.hakbot.controller.plugin.ConsoleIdentifier;
 import io.hakbot.controller.plugin.RemoteInstance;
-import io.hakbot.controller.plugin.RemoteInstanceAutoConfig;
+import io.hakbot.controller.plugin.RemoteInstanceRegistry;
 import io.hakbot.controller.workers.State;
-import io.hakbot.providers.AsynchronousProvider;
 import io.hakbot.providers.BaseProvider;
+import io.hakbot.providers.BatchAsynchronousProvider;
 import io.hakbot.util.JsonUtil;
-import net.continuumsecurity.ClientFactory;
 import net.continuumsecurity.v6.ScanClientV6;
 import net.continuumsecurity.v6.model.ExportFormat;
-import org.apache.commons.io.FileUtils;
+import net.continuumsecurity.v6.model.ExportV6;
+import org.apache.commons.io.IOUtils;
 import javax.json.JsonObject;
 import javax.security.auth.login.LoginException;
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Paths;
+import java.io.InputStream;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPOutputStream;
 
-public class NessusProvider extends BaseProvider implements AsynchronousProvider, ConsoleIdentifier {
+public class NessusProvider extends BaseProvider implements BatchAsynchronousProvider, ConsoleIdentifier {
 
     // Setup logging
     private static final Logger logger = Logger.getLogger(NessusProvider.class);
 
-    private static Map<String, RemoteInstance> instanceMap = new RemoteInstanceAutoConfig().createMap(Type.PROVIDER, NessusConstants.PLUGIN_ID);
+    // The maximum time (in milliseconds) to wait for Nessus to export a report
+    private static final long EXPORT_TIMEOUT = 60 * 60 * 1000;
+
+    // Exports requested for jobs whose scan has finished, keyed by job UUID
+    private static final ConcurrentMap<String, PendingExport> exports = new ConcurrentHashMap<>();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final boolean COMPRESS_RESULTS = Boolean.parseBoolean(Config.getInstance().getProperty("provider.nessus.compress.results"));
 
     @Override
     public boolean initialize(Job job) {
@@ -53,7 +70,7 @@ public class NessusProvider extends BaseProvider implements AsynchronousProvider
             addProcessingMessage(job, "Invalid request. Expected parameters: [scanName], [scanPolicy], [targets]");
             return false;
         }
-        RemoteInstance remoteInstance = instanceMap.get(JsonUtil.getString(payload, "instance"));
+        RemoteInstance remoteInstance = RemoteInstanceRegistry.getInstance().get(Type.PROVIDER, NessusConstants.PLUGIN_ID, JsonUtil.getString(payload, "instance"));
         if (remoteInstance == null) {
             remoteInstance = new RemoteInstance();
             if (!JsonUtil.requiredParams(payload, "url", "username", "password")) {
@@ -82,19 +99,20 @@ public class NessusProvider extends BaseProvider implements AsynchronousProvider
     public void process(Job job) {
         // Retrieve remote instance and job properties defined during initialization
         RemoteInstance remoteInstance = getRemoteInstance(job);
-        String scanName = getJobProperty(job, NessusConstants.SCAN_NAME);
-        String scanPolicy = getJobProperty(job, NessusConstants.SCAN_POLICY);
-        String targets = getJobProperty(job, NessusConstants.TARGETS);
+        final String scanName = getJobProperty(job, NessusConstants.SCAN_NAME);
+        final String scanPolicy = getJobProperty(job, NessusConstants.SCAN_POLICY);
+        final String targets = getJobProperty(job, NessusConstants.TARGETS);
         try {
-            ScanClientV6 scan = (ScanClientV6)ClientFactory.createScanClient(remoteInstance.getUrl(), 6, !remoteInstance.isValidateCertificates());
-            scan.login(remoteInstance.getUsername(), remoteInstance.getPassword());
-            String scanID = scan.newScan(scanName, scanPolicy, targets);
+            String scanID = NessusSessionManager.get(remoteInstance).execute(new NessusSessionManager.Request<String>() {
+                public String execute(ScanClientV6 scan) {
+                    return scan.newScan(scanName, scanPolicy, targets);
+                }
+            });
             // Save the scan ID Nessus assigned to the job
             setJobProperty(job, NessusConstants.PROP_SCAN_ID, scanID);
-            scan.logout();
         } catch (LoginException e) {
             updateState(job, State.FAILED, "Unable to login to Nessus");
-        } catch (RuntimeException e) {
+        } catch (IOException | RuntimeException e) {
             updateState(job, State.FAILED, "Unable to process Nessus job. Likely cause is an invalid scan policy.");
         }
     }
@@ -102,58 +120,166 @@ public class NessusProvider extends BaseProvider implements AsynchronousProvider
     public boolean isRunning(Job job) {
         // Retrieve the remote instance defined during initialization
         RemoteInstance remoteInstance = getRemoteInstance(job);
+        final String scanId = getJobProperty(job, NessusConstants.PROP_SCAN_ID);
         try {
-            ScanClientV6 scan = (ScanClientV6) ClientFactory.createScanClient(remoteInstance.getUrl(), 6, !remoteInstance.isValidateCertificates());
-            scan.login(remoteInstance.getUsername(), remoteInstance.getPassword());
-            String scanId = getJobProperty(job, NessusConstants.PROP_SCAN_ID);
-            boolean isRunning = scan.isScanRunning(scanId);
-            scan.logout();
-            return isRunning;
+            NessusSessionManager session = NessusSessionManager.get(remoteInstance);
+            return ScanClientV6.isRunningStatus(session.getScanStatus(scanId)) || isExporting(job, session, scanId);
         } catch (LoginException e) {
             updateState(job, State.FAILED, "Unable to login to Nessus");
+        } catch (IOException e) {
+            logger.error("Unable to determine the status of scan " + scanId + ". " + e.getMessage());
         }
         return false;
     }
 
-    @Override
-    public void getResult(Job job) {
-        // Retrieve the remote instance defined during initialization
+    public String getBatchKey(Job job) {
         RemoteInstance remoteInstance = getRemoteInstance(job);
+        return remoteInstance.getUrl() + "|" + remoteInstance.getUsername();
+    }
+
+    /**
+     * Determines the status of all jobs running on the same Nessus instance from a
+     * single snapshot of the list of scans.
+     */
+    public Map<String, Boolean> isRunning(List<Job> jobs) {
+        Map<String, Boolean> running = new HashMap<>();
+        // All jobs in the batch share the same remote instance
+        RemoteInstance remoteInstance = getRemoteInstance(jobs.get(0));
         try {
-            ScanClientV6 scan = (ScanClientV6) ClientFactory.createScanClient(remoteInstance.getUrl(), 6, !remoteInstance.isValidateCertificates());
-            scan.login(remoteInstance.getUsername(), remoteInstance.getPassword());
-            String scanId = getJobProperty(job, NessusConstants.PROP_SCAN_ID);
-            File report = scan.download(Integer.parseInt(scanId), ExportFormat.NESSUS, Paths.get(System.getProperty("java.io.tmpdir")));
-
-            // Convert result to byte array and save it
-            byte[] result = FileUtils.readFileToByteArray(report);
-            addArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.XML.value(), result, job.getUuid() + ".nessus");
-
-            // Cleanup and logout
-            report.delete();
-            scan.logout();
+            NessusSessionManager session = NessusSessionManager.get(remoteInstance);
+            for (Job job: jobs) {
+                String scanId = getJobProperty(job, NessusConstants.PROP_SCAN_ID);
+                String status = (scanId == null) ? null : session.getScanStatus(scanId);
+                running.put(job.getUuid(), ScanClientV6.isRunningStatus(status) || (scanId != null && isExporting(job, session, scanId)));
+            }
         } catch (LoginException e) {
-            updateState(job, State.FAILED, "Unable to login to Nessus");
+            for (Job job: jobs) {
+                updateState(job, State.FAILED, "Unable to login to Nessus");
+            }
         } catch (IOException e) {
-            updateState(job, State.FAILED, "IOException - Possibly due to downloading report");
+            logger.error("Unable to determine the status of scans on " + remoteInstance.getUrl() + ". " + e.getMessage());
         }
+        return running;
     }
 
-    public boolean cancel(Job job) {
+    /**
+     * Returns true while the report of a finished scan is being exported. The export is
+     * requested the first time the scan is found to have finished, and its status is polled
+     * in the background. Until it is ready, the job is reported as running, so no thread
+     * waits for the export and the progress check retries later.
+     */
+    private static boolean isExporting(Job job, NessusSessionManager session, String scanId) {
+        removeExpiredExports();
+        PendingExport pending = exports.get(job.getUuid());
+        if (pending == null) {
+            pending = new PendingExport(session.export(Integer.parseInt(scanId), ExportFormat.NESSUS));
+            PendingExport existing = exports.putIfAbsent(job.getUuid(), pending);
+            if (existing != null) {
+                pending.future.cancel(false);
+                pending = existing;
+            }
+        }
+        if (!pending.future.isDone() && System.currentTimeMillis() - pending.requested > EXPORT_TIMEOUT) {
+            // Stops the background polling. The timeout is reported by getResult()
+            pending.future.cancel(false);
+        }
+        return !pending.future.isDone();
+    }
+
+    /**
+     * Drops the exports of jobs which were deleted while exporting. A job still in progress
+     * collects its export, or the timeout, long before the export expires.
+     */
+    private static void removeExpiredExports() {
+        final long expired = System.currentTimeMillis() - 2 * EXPORT_TIMEOUT;
+        final Iterator<PendingExport> iterator = exports.values().iterator();
+        while (iterator.hasNext()) {
+            final PendingExport pending = iterator.next();
+            if (pending.requested < expired) {
+                pending.future.cancel(false);
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Streams the exported report directly into the artifact store, compressing it
+     * if configured to do so. Nothing is written to a temporary file and the report
+     * is never held in memory. Only called once isRunning() has found the export to
+     * be ready, so it does not wait for Nessus to generate the report.
+     */
+    @Override
+    public void getResult(final Job job) {
+        final PendingExport pending = exports.remove(job.getUuid());
+        if (pending == null || !pending.future.isDone()) {
+            if (pending != null) {
+                pending.future.cancel(false);
+            }
+            updateState(job, State.FAILED, "The report was not exported by Nessus");
+            return;
+        }
         // Retrieve the remote instance defined during initialization
         RemoteInstance remoteInstance = getRemoteInstance(job);
-        updateState(job, State.CANCELED);
+        final int scanId = Integer.parseInt(getJobProperty(job, NessusConstants.PROP_SCAN_ID));
         try {
-            ScanClientV6 scan = (ScanClientV6)ClientFactory.createScanClient(remoteInstance.getUrl(), 6, !remoteInstance.isValidateCertificates());
-            scan.login(remoteInstance.getUsername(), remoteInstance.getPassword());
+            final ExportV6 export = pending.future.get();
+            NessusSessionManager.get(remoteInstance).execute(new NessusSessionManager.Request<Void>() {
+                public Void execute(ScanClientV6 scan) throws IOException {
+                    try (InputStream download = scan.openDownload(scanId, export)) {
+                        storeResult(job, download);
+                    }
+                    return null;
+                }
+            });
+        } catch (CancellationException e) {
+            updateState(job, State.FAILED, "Timed out waiting for Nessus to export the report");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            updateState(job, State.FAILED, "Interrupted while retrieving the report from Nessus");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof LoginException) {
+                updateState(job, State.FAILED, "Unable to login to Nessus");
+            } else {
+                updateState(job, State.FAILED, "Unable to export the report from Nessus. " + e.getCause().getMessage());
+            }
+        } catch (LoginException e) {
+            updateState(job, State.FAILED, "Unable to login to Nessus");
+        } catch (IOException | RuntimeException e) {
+            updateState(job, State.FAILED, "IOException - Possibly due to downloading report");
+        }
+    }
 
-            String scanId = getJobProperty(job, NessusConstants.PROP_SCAN_ID);
+    private void storeResult(Job job, InputStream download) throws IOException {
+        ArtifactStore.Content content;
+        try (ArtifactStore.ContentWriter writer = ArtifactStore.getInstance().newWriter()) {
+            if (COMPRESS_RESULTS) {
+                // Closing the stream after the commit only releases the Deflater, as the writer is already closed
+                try (GZIPOutputStream out = new GZIPOutputStream(writer, BUFFER_SIZE)) {
+                    IOUtils.copyLarge(download, out, new byte[BUFFER_SIZE]);
+                    out.finish();
+                    content = writer.commit();
+                }
+            } else {
+                IOUtils.copyLarge(download, writer, new byte[BUFFER_SIZE]);
+                content = writer.commit();
+            }
+        }
+        if (COMPRESS_RESULTS) {
+            addArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.GZIP.value(), content, job.getUuid() + ".nessus.gz");
+        } else {
+            addArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.XML.value(), content, job.getUuid() + ".nessus");
+        }
+    }
 
-            // todo cancel the job with the specified scanId
-        } catch (LoginException e) {
-            addProcessingMessage(job,"Unable to login to Nessus");
-            return false;
+    public boolean cancel(Job job) {
+        PendingExport pending = exports.remove(job.getUuid());
+        if (pending != null) {
+            pending.future.cancel(false);
         }
+        updateState(job, State.CANCELED);
+        String scanId = getJobProperty(job, NessusConstants.PROP_SCAN_ID);
+
+        // todo cancel the job with the specified scanId
         return true;
     }
 
@@ -169,4 +295,16 @@ public class NessusProvider extends BaseProvider implements AsynchronousProvider
         return NessusConsole.class;
     }
 
+    /**
+     * An export of the report of a finished scan, and the time it was requested
+     */
+    private static class PendingExport {
+        private final CompletableFuture<ExportV6> future;
+        private final long requested = System.currentTimeMillis();
+
+        private PendingExport(CompletableFuture<ExportV6> future) {
+            this.future = future;
+        }
+    }
+
 }
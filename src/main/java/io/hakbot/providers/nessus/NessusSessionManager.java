@@ -0,0 +1,357 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.providers.nessus;
+
+import alpine.logging.Logger;
+import io.hakbot.controller.plugin.RemoteInstance;
+import io.hakbot.controller.plugin.RemoteInstanceRegistry;
+import net.continuumsecurity.ClientFactory;
+import net.continuumsecurity.ScanNotFoundException;
+import net.continuumsecurity.v6.ScanClientV6;
+import net.continuumsecurity.v6.model.ExportFormat;
+import net.continuumsecurity.v6.model.ExportV6;
+import net.continuumsecurity.v6.model.ScanV6;
+import net.continuumsecurity.v6.model.ScansV6;
+import javax.security.auth.login.LoginException;
+import javax.ws.rs.NotAuthorizedException;
+import javax.ws.rs.client.Client;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Maintains a long-lived session with a single Nessus instance. Each instance has one
+ * shared client (and therefore one SSL context and one pool of keep-alive connections),
+ * which is closed when the instance is removed or changed by a reload of the remote
+ * instances, or when it is evicted from the bounded set of sessions for instances
+ * supplied in job payloads. Each session authenticates once, either by logging in and caching the session token, or by
+ * using API keys if configured. Requests which are rejected because the session has
+ * expired are retried once after re-authenticating. Safe for use by concurrent callers.
+ *
+ * API keys are used when the instance specifies both an apikey (the access key) and a
+ * token (the secret key).
+ *
+ * The status of scans is resolved from a snapshot of the scan list which is shared by
+ * all jobs on the instance for a short period, so jobs checked in the same poll cycle
+ * cost a single request. The snapshot is refreshed incrementally using the
+ * last_modification_date filter, and rebuilt from the full list periodically so that
+ * deleted scans are dropped.
+ *
+ * Exports are requested once and their status is polled in the background, so that
+ * no thread is held sleeping while Nessus generates the report.
+ */
+final class NessusSessionManager {
+
+    // Setup logging
+    private static final Logger logger = Logger.getLogger(NessusSessionManager.class);
+
+    // The period (in milliseconds) during which all callers share the same snapshot
+    private static final long SNAPSHOT_MAX_AGE = 15 * 1000;
+
+    // The period (in milliseconds) after which the snapshot is rebuilt from the full list
+    private static final long SNAPSHOT_REBUILD_INTERVAL = 10 * 60 * 1000;
+
+    // The period (in milliseconds) between checks of the status of an export
+    private static final long EXPORT_POLL_INTERVAL = 2 * 1000;
+
+    // The maximum number of sessions kept for instances supplied in job payloads
+    private static final int MAX_AD_HOC_SESSIONS = 16;
+
+    // Holds the session of each configured instance, keyed by instance id
+    private static final Map<String, NessusSessionManager> sessions = new HashMap<>();
+
+    // Holds the sessions of instances supplied in job payloads, least recently used first. Guarded by sessions
+    private static final Map<String, NessusSessionManager> adHocSessions = new LinkedHashMap<String, NessusSessionManager>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, NessusSessionManager> eldest) {
+            if (size() > MAX_AD_HOC_SESSIONS) {
+                eldest.getValue().close();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    static {
+        RemoteInstanceRegistry.getInstance().addReloadListener(new RemoteInstanceRegistry.ReloadListener() {
+            public void reloaded() {
+                closeChangedSessions();
+            }
+        });
+    }
+
+    // Polls the status of all pending exports
+    private static final Timer exportTimer = new Timer("Nessus Export Poller", true);
+
+    private final RemoteInstance remoteInstance;
+    private final String credentials;
+    private final Client httpClient;
+    private final ScanClientV6 client;
+    private boolean authenticated;
+    private long generation;
+
+    private final Object snapshotLock = new Object();
+    private Map<Integer, String> snapshot;
+    private long snapshotServerTime;
+    private long snapshotRefreshed;
+    private long snapshotRebuilt;
+
+    /**
+     * A unit of work performed against an authenticated client.
+     */
+    interface Request<T> {
+        T execute(ScanClientV6 client) throws IOException;
+    }
+
+    private NessusSessionManager(RemoteInstance remoteInstance) {
+        this.remoteInstance = remoteInstance;
+        this.credentials = getCredentials(remoteInstance);
+        this.httpClient = ClientFactory.createSharedV6Client(!remoteInstance.isValidateCertificates());
+        this.client = new ScanClientV6(remoteInstance.getUrl(), httpClient);
+    }
+
+    /**
+     * Returns the session for the specified instance. Configured instances have one session
+     * each, which is replaced if the instance is reloaded with a different URL or credentials.
+     * Instances supplied in a job payload share a session only if the URL and credentials are
+     * identical, and only the most recently used of those sessions are kept.
+     */
+    static NessusSessionManager get(RemoteInstance remoteInstance) {
+        final String credentials = getCredentials(remoteInstance);
+        synchronized (sessions) {
+            if (remoteInstance.getId() == null || RemoteInstanceRegistry.getInstance().getById(remoteInstance.getId()) == null) {
+                NessusSessionManager session = adHocSessions.get(credentials);
+                if (session == null) {
+                    session = new NessusSessionManager(remoteInstance);
+                    adHocSessions.put(credentials, session);
+                }
+                return session;
+            }
+            NessusSessionManager session = sessions.get(remoteInstance.getId());
+            if (session == null || !session.credentials.equals(credentials)) {
+                if (session != null) {
+                    session.close();
+                }
+                session = new NessusSessionManager(remoteInstance);
+                sessions.put(remoteInstance.getId(), session);
+            }
+            return session;
+        }
+    }
+
+    /**
+     * Closes the sessions of configured instances which were removed or changed by a reload
+     */
+    private static void closeChangedSessions() {
+        synchronized (sessions) {
+            final Iterator<Map.Entry<String, NessusSessionManager>> iterator = sessions.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<String, NessusSessionManager> entry = iterator.next();
+                final RemoteInstance current = RemoteInstanceRegistry.getInstance().getById(entry.getKey());
+                if (current == null || !entry.getValue().credentials.equals(getCredentials(current))) {
+                    entry.getValue().close();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static String getCredentials(RemoteInstance remoteInstance) {
+        return remoteInstance.getUrl() + "|" + remoteInstance.getUsername() + "|" + remoteInstance.getPassword() + "|"
+                + remoteInstance.getApiKey() + "|" + remoteInstance.getToken() + "|" + remoteInstance.isValidateCertificates();
+    }
+
+    /**
+     * Closes the client and its pool of connections. Requests still in progress fail.
+     */
+    private void close() {
+        try {
+            httpClient.close();
+        } catch (RuntimeException e) {
+            logger.warn("Unable to close the client of " + remoteInstance.getUrl() + ". " + e.getMessage());
+        }
+    }
+
+    /**
+     * Executes the request, authenticating first if required. If Nessus rejects the
+     * session, the session is re-established and the request is retried once.
+     */
+    <T> T execute(Request<T> request) throws LoginException, IOException {
+        long session = authenticate();
+        try {
+            return request.execute(client);
+        } catch (NotAuthorizedException e) {
+            logger.debug("Session with " + remoteInstance.getUrl() + " is no longer valid. Re-authenticating.");
+        }
+        reauthenticate(session);
+        try {
+            return request.execute(client);
+        } catch (NotAuthorizedException e) {
+            throw new LoginException("Nessus rejected the credentials of " + remoteInstance.getUrl());
+        }
+    }
+
+    /**
+     * Returns the status of all scans on the instance, keyed by scan id. The returned
+     * map is shared and must not be modified.
+     */
+    Map<Integer, String> getScanStatuses() throws LoginException, IOException {
+        synchronized (snapshotLock) {
+            long now = System.currentTimeMillis();
+            if (snapshot != null && now - snapshotRefreshed < SNAPSHOT_MAX_AGE) {
+                return snapshot;
+            }
+            final boolean rebuild = snapshot == null || now - snapshotRebuilt >= SNAPSHOT_REBUILD_INTERVAL;
+            // Overlap by a second, as the filter has a granularity of one second
+            final long modifiedSince = snapshotServerTime - 1;
+            ScansV6 scans = execute(new Request<ScansV6>() {
+                public ScansV6 execute(ScanClientV6 client) {
+                    return rebuild ? client.listScans() : client.listScans(modifiedSince);
+                }
+            });
+            Map<Integer, String> statuses = rebuild ? new HashMap<Integer, String>() : new HashMap<>(snapshot);
+            if (scans.getScans() != null) {
+                for (ScanV6 scan : scans.getScans()) {
+                    statuses.put(scan.getId(), scan.getStatus());
+                }
+            }
+            snapshot = Collections.unmodifiableMap(statuses);
+            snapshotServerTime = scans.getTimestamp();
+            snapshotRefreshed = now;
+            if (rebuild) {
+                snapshotRebuilt = now;
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Returns the status of the specified scan, or null if the scan does not exist.
+     * The shared snapshot is used if it contains the scan, otherwise the status is
+     * requested for the scan alone.
+     */
+    String getScanStatus(final String scanId) throws LoginException, IOException {
+        String status = getScanStatuses().get(Integer.parseInt(scanId));
+        if (status != null) {
+            return status;
+        }
+        return execute(new Request<String>() {
+            public String execute(ScanClientV6 client) {
+                try {
+                    return client.getScanStatus(scanId);
+                } catch (ScanNotFoundException e) {
+                    return null;
+                }
+            }
+        });
+    }
+
+    /**
+     * Requests an export of the scan. The returned future completes once Nessus reports
+     * that the export is ready for download, or completes exceptionally if the export
+     * could not be requested or its status could not be determined.
+     */
+    CompletableFuture<ExportV6> export(final int scanId, final ExportFormat format) {
+        final CompletableFuture<ExportV6> future = new CompletableFuture<>();
+        try {
+            ExportV6 export = execute(new Request<ExportV6>() {
+                public ExportV6 execute(ScanClientV6 client) {
+                    return client.export(scanId, format);
+                }
+            });
+            exportTimer.schedule(new ExportStatusTask(scanId, export, future), 0);
+        } catch (LoginException | IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Authenticates if a session has not yet been established. Returns the
+     * generation of the current session.
+     */
+    private synchronized long authenticate() throws LoginException {
+        if (!authenticated) {
+            if (remoteInstance.getApiKey() != null && remoteInstance.getToken() != null) {
+                client.setApiKeys(remoteInstance.getApiKey(), remoteInstance.getToken());
+            } else {
+                try {
+                    client.login(remoteInstance.getUsername(), remoteInstance.getPassword());
+                } catch (NotAuthorizedException e) {
+                    throw new LoginException("Unable to login to " + remoteInstance.getUrl());
+                }
+            }
+            authenticated = true;
+            generation++;
+        }
+        return generation;
+    }
+
+    /**
+     * Re-authenticates unless another caller has already done so since the
+     * specified session was established.
+     */
+    private synchronized void reauthenticate(long session) throws LoginException {
+        if (session == generation) {
+            authenticated = false;
+        }
+        authenticate();
+    }
+
+    /**
+     * Checks the status of an export once, scheduling the next check if the export
+     * is not yet ready.
+     */
+    private class ExportStatusTask extends TimerTask {
+        private final int scanId;
+        private final ExportV6 export;
+        private final CompletableFuture<ExportV6> future;
+
+        private ExportStatusTask(int scanId, ExportV6 export, CompletableFuture<ExportV6> future) {
+            this.scanId = scanId;
+            this.export = export;
+            this.future = future;
+        }
+
+        public void run() {
+            if (future.isDone()) {
+                return; // Cancelled or timed out by the caller
+            }
+            try {
+                boolean ready = execute(new Request<Boolean>() {
+                    public Boolean execute(ScanClientV6 client) {
+                        return client.isExportReady(scanId, export);
+                    }
+                });
+                if (ready) {
+                    future.complete(export);
+                } else {
+                    exportTimer.schedule(new ExportStatusTask(scanId, export, future), EXPORT_POLL_INTERVAL);
+                }
+            } catch (LoginException | IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+}
@@ -16,25 +16,51 @@
  */
 package io.hakbot.providers.shell;
 
+import alpine.Config;
 import alpine.logging.Logger;
 import io.hakbot.controller.model.Job;
 import io.hakbot.controller.model.JobArtifact;
+import io.hakbot.controller.persistence.ArtifactStore;
 import io.hakbot.controller.workers.JobException;
 import io.hakbot.controller.workers.State;
 import io.hakbot.providers.BaseProvider;
 import io.hakbot.providers.SynchronousProvider;
 import io.hakbot.util.JsonUtil;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import javax.json.JsonObject;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Executes a command and captures its output. STDOUT and STDERR are drained
+ * concurrently while the command runs, so commands producing more output than
+ * the OS pipe buffer cannot block. The output is streamed into the ArtifactStore,
+ * so memory use is bounded regardless of the amount of output. Lines of output
+ * are also added to the job as processing messages as they are produced, up to
+ * a limit.
+ */
 public  class ShellProvider extends BaseProvider implements SynchronousProvider {
 
     // Setup logging
     private static final Logger logger = Logger.getLogger(ShellProvider.class);
-    private Process process;
-    private String command;
+
+    // The maximum time (in seconds) a command may run before it is terminated
+    private static final long TIMEOUT = getTimeout();
+
+    // The maximum number of lines of each stream added to the job as messages
+    private static final int MAX_MESSAGE_LINES = 500;
+
+    // Lines longer than this (in bytes) are truncated in messages, but not in the result
+    private static final int MAX_LINE_LENGTH = 1024;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    // Running processes by job uuid, so that any instance of the provider can cancel them
+    private static final Map<String, Process> processes = new ConcurrentHashMap<>();
 
     public boolean initialize(Job job) {
         JsonObject payload = JsonUtil.toJsonObject(getProviderPayload(job).getContents());
@@ -42,61 +68,97 @@ public  class ShellProvider extends BaseProvider implements SynchronousProvider
             addProcessingMessage(job, "Invalid request. Expected parameters: [command]");
             return false;
         }
-        command = JsonUtil.getString(payload, "command");
         return true;
     }
 
     public boolean process(Job job) {
-        InputStream inputStream = null;
-        InputStream errorStream = null;
+        JsonObject payload = JsonUtil.toJsonObject(getProviderPayload(job).getContents());
+        String command = JsonUtil.getString(payload, "command");
+        Process process = null;
+        OutputDrain stdout = null;
+        OutputDrain stderr = null;
         try {
             ProcessBuilder pb = new ProcessBuilder(command.split(" "));
             process = pb.start();
-            int exitCode = process.waitFor();
-            inputStream = process.getInputStream();
-            errorStream = process.getErrorStream();
-            byte[] stdout = IOUtils.toByteArray(inputStream);
-            byte[] stderr = IOUtils.toByteArray(errorStream);
-            if (logger.isDebugEnabled()) {
-                logger.debug("STDOUT:");
-                logger.debug(new String(stdout));
-                logger.debug("STDERR:");
-                logger.debug(new String(stderr));
+            processes.put(job.getUuid(), process);
+            process.getOutputStream().close();
+            stdout = new OutputDrain(job, "STDOUT", process.getInputStream());
+            stderr = new OutputDrain(job, "STDERR", process.getErrorStream());
+            stdout.start();
+            stderr.start();
+
+            if (!process.waitFor(TIMEOUT, TimeUnit.SECONDS)) {
+                addProcessingMessage(job, "Command did not complete within " + TIMEOUT + " seconds and was terminated.");
+                destroy(process);
             }
+            int exitCode = process.waitFor();
+            stdout.await();
+            stderr.await();
 
-            if (exitCode == 0) {
-                addArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.PLAIN_TEXT.value(), stdout, "Console-STDOUT-" + job.getUuid() + ".txt");
+            // Only the stream used as the result is committed to the ArtifactStore
+            if (exitCode == 0 || stdout.getSize() > 0) {
+                addArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.PLAIN_TEXT.value(), stdout.commit(), "Console-STDOUT-" + job.getUuid() + ".txt");
             } else {
-                if (stdout.length == 0) {
-                    addArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.PLAIN_TEXT.value(), stderr, "Console-STDERR-" + job.getUuid() + ".txt");
-                } else {
-                    addArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.PLAIN_TEXT.value(), stdout, "Console-STDOUT-" + job.getUuid() + ".txt");
-                }
+                addArtifact(job, JobArtifact.Type.PROVIDER_RESULT, JobArtifact.MimeType.PLAIN_TEXT.value(), stderr.commit(), "Console-STDERR-" + job.getUuid() + ".txt");
+            }
+            if (exitCode != 0) {
                 throw new JobException(exitCode);
             }
             return true;
         } catch (IOException | InterruptedException e) {
             addProcessingMessage(job, "Could not execute job.");
             addProcessingMessage(job, e.getMessage());
+            if (process != null) {
+                destroy(process);
+            }
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
         } catch (JobException e) {
             addProcessingMessage(job, "Job terminated abnormally. Exit code: " + e.getExitCode());
             addProcessingMessage(job, e.getMessage());
         } finally {
-            IOUtils.closeQuietly(inputStream);
-            IOUtils.closeQuietly(errorStream);
+            processes.remove(job.getUuid());
+            if (stdout != null) {
+                stdout.discard();
+            }
+            if (stderr != null) {
+                stderr.discard();
+            }
         }
         return false;
     }
 
     public boolean cancel(Job job) {
         updateState(job, State.CANCELED);
+        Process process = processes.get(job.getUuid());
+        if (process == null) {
+            return true; // Not running
+        }
+        return destroy(process);
+    }
+
+    /**
+     * Terminates the process, forcibly if it does not exit promptly.
+     */
+    private static boolean destroy(Process process) {
         process.destroy();
-        if (process.isAlive()) {
+        try {
+            if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
             process.destroyForcibly();
+            Thread.currentThread().interrupt();
         }
         return !process.isAlive();
     }
 
+    private static long getTimeout() {
+        String timeout = StringUtils.trimToNull(Config.getInstance().getProperty("provider.shell.timeout"));
+        return (timeout == null) ? 3600 : Long.parseLong(timeout);
+    }
+
     public String getName() {
         return "Shell";
     }
@@ -105,4 +167,101 @@ public  class ShellProvider extends BaseProvider implements SynchronousProvider
         return "Executes a shell command or script and captures the output from STDOUT/STDERR.";
     }
 
+    /**
+     * Reads one stream of the process on its own thread, writing the output to the
+     * ArtifactStore and adding each line to the job as a message.
+     */
+    private class OutputDrain extends Thread {
+        private final Job job;
+        private final String name;
+        private final InputStream in;
+        private final ArtifactStore.ContentWriter writer;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(MAX_LINE_LENGTH);
+        private int lines;
+        private long size;
+        private IOException exception;
+
+        private OutputDrain(Job job, String name, InputStream in) throws IOException {
+            super("Shell " + name + " " + job.getUuid());
+            setDaemon(true);
+            this.job = job;
+            this.name = name;
+            this.in = in;
+            this.writer = ArtifactStore.getInstance().newWriter();
+        }
+
+        @Override
+        public void run() {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            try (InputStream in = this.in) {
+                while ((read = in.read(buffer)) != -1) {
+                    writer.write(buffer, 0, read);
+                    size += read;
+                    for (int i = 0; i < read; i++) {
+                        if (buffer[i] == '\n') {
+                            publishLine();
+                        } else if (buffer[i] != '\r' && line.size() < MAX_LINE_LENGTH) {
+                            line.write(buffer[i]);
+                        }
+                    }
+                }
+                if (line.size() > 0) {
+                    publishLine();
+                }
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+
+        private void publishLine() {
+            lines++;
+            if (lines <= MAX_MESSAGE_LINES) {
+                String text = line.toString();
+                if (logger.isDebugEnabled()) {
+                    logger.debug(name + ": " + text);
+                }
+                addProcessingMessage(job, name + ": " + text);
+            } else if (lines == MAX_MESSAGE_LINES + 1) {
+                addProcessingMessage(job, "Further " + name + " output is available in the result only.");
+            }
+            line.reset();
+        }
+
+        /**
+         * Waits for the stream to be fully read
+         */
+        private void await() throws IOException, InterruptedException {
+            join();
+            if (exception != null) {
+                throw exception;
+            }
+        }
+
+        /**
+         * Returns the number of bytes read. Only valid once the stream has been read.
+         */
+        private long getSize() {
+            return size;
+        }
+
+        /**
+         * Adds the output to the ArtifactStore. Only valid once the stream has been read.
+         */
+        private ArtifactStore.Content commit() throws IOException {
+            return writer.commit();
+        }
+
+        /**
+         * Discards the output unless it was committed
+         */
+        private void discard() {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                logger.error("Unable to discard " + name + " of job " + job.getUuid());
+            }
+        }
+    }
+
 }
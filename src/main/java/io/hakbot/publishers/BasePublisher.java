@@ -24,6 +24,9 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 public abstract class BasePublisher extends BasePlugin implements Publisher {
 
@@ -53,7 +56,10 @@ public abstract class BasePublisher extends BasePlugin implements Publisher {
                 filename = job.getUuid() + ".result";
             }
             File result = new File(directory, filename).getAbsoluteFile();
-            FileUtils.writeByteArrayToFile(result, artifact.getContents());
+            FileUtils.forceMkdir(directory);
+            try (InputStream in = openArtifact(artifact)) {
+                Files.copy(in, result.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
             addProcessingMessage(job, "Result written to: " + result.getPath());
             return result;
         } catch (IOException e) {
@@ -20,20 +20,17 @@ import alpine.logging.Logger;
 import io.hakbot.controller.model.Job;
 import io.hakbot.controller.model.JobArtifact;
 import io.hakbot.controller.plugin.RemoteInstance;
-import io.hakbot.controller.plugin.RemoteInstanceAutoConfig;
+import io.hakbot.controller.plugin.RemoteInstanceRegistry;
 import io.hakbot.publishers.BasePublisher;
 import io.hakbot.util.JsonUtil;
 import javax.json.JsonObject;
 import java.io.File;
-import java.util.Map;
 
 public class RemoteFileSystemPublisher extends BasePublisher {
 
     // Setup logging
     private static final Logger logger = Logger.getLogger(RemoteFileSystemPublisher.class);
 
-    private static Map<String, RemoteInstance> instanceMap = new RemoteInstanceAutoConfig().createMap(Type.PUBLISHER, "remotefs");
-
     private RemoteInstance remoteInstance;
 
     @Override
@@ -41,7 +38,7 @@ public class RemoteFileSystemPublisher extends BasePublisher {
         super.initialize(job);
 
         JsonObject payload = JsonUtil.toJsonObject(getPublisherPayload(job).getContents());
-        remoteInstance = instanceMap.get(JsonUtil.getString(payload, "instance"));
+        remoteInstance = RemoteInstanceRegistry.getInstance().get(Type.PUBLISHER, "remotefs", JsonUtil.getString(payload, "instance"));
         if (remoteInstance == null) {
             addProcessingMessage(job, "RemoteFileSystem instance cannot be found or is not defined.");
             return false;
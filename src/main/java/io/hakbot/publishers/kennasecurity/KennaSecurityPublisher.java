@@ -20,7 +20,7 @@ import alpine.logging.Logger;
 import io.hakbot.controller.model.Job;
 import io.hakbot.controller.model.JobArtifact;
 import io.hakbot.controller.plugin.RemoteInstance;
-import io.hakbot.controller.plugin.RemoteInstanceAutoConfig;
+import io.hakbot.controller.plugin.RemoteInstanceRegistry;
 import io.hakbot.publishers.BasePublisher;
 import io.hakbot.util.JsonUtil;
 import org.apache.commons.collections4.MapUtils;
@@ -35,15 +35,12 @@ import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Response;
 import java.io.File;
 import java.io.IOException;
-import java.util.Map;
 
 public class KennaSecurityPublisher extends BasePublisher {
 
     // Setup logging
     private static final Logger logger = Logger.getLogger(KennaSecurityPublisher.class);
 
-    private static Map<String, RemoteInstance> instanceMap = new RemoteInstanceAutoConfig().createMap(Type.PUBLISHER, "kennasecurity");
-
     private RemoteInstance remoteInstance;
 
     @Override
@@ -51,7 +48,7 @@ public class KennaSecurityPublisher extends BasePublisher {
         super.initialize(job);
 
         JsonObject payload = JsonUtil.toJsonObject(getPublisherPayload(job).getContents());
-        remoteInstance = instanceMap.get(MapUtils.getString(payload, "instance"));
+        remoteInstance = RemoteInstanceRegistry.getInstance().get(Type.PUBLISHER, "kennasecurity", MapUtils.getString(payload, "instance"));
         if (remoteInstance == null) {
             addProcessingMessage(job, "KennaSecurity instance cannot be found or is not defined.");
             return false;
@@ -20,7 +20,7 @@ import alpine.logging.Logger;
 import io.hakbot.controller.model.Job;
 import io.hakbot.controller.model.JobArtifact;
 import io.hakbot.controller.plugin.RemoteInstance;
-import io.hakbot.controller.plugin.RemoteInstanceAutoConfig;
+import io.hakbot.controller.plugin.RemoteInstanceRegistry;
 import io.hakbot.publishers.BasePublisher;
 import io.hakbot.util.JsonUtil;
 import org.glassfish.jersey.media.multipart.FormDataMultiPart;
@@ -34,15 +34,12 @@ import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Response;
 import java.io.File;
 import java.io.IOException;
-import java.util.Map;
 
 public class ThreadFixPublisher extends BasePublisher {
 
     // Setup logging
     private static final Logger logger = Logger.getLogger(ThreadFixPublisher.class);
 
-    private static Map<String, RemoteInstance> instanceMap = new RemoteInstanceAutoConfig().createMap(Type.PUBLISHER, "threadfix");
-
     private RemoteInstance remoteInstance;
     private int appId;
 
@@ -55,7 +52,7 @@ public class ThreadFixPublisher extends BasePublisher {
             addProcessingMessage(job, "Invalid request. Expected parameter: [appId]");
             return false;
         }
-        remoteInstance = instanceMap.get(JsonUtil.getString(payload, "instance"));
+        remoteInstance = RemoteInstanceRegistry.getInstance().get(Type.PUBLISHER, "threadfix", JsonUtil.getString(payload, "instance"));
         if (remoteInstance == null) {
             addProcessingMessage(job, "ThreadFix remote instance cannot be found or is not defined.");
             return false;
@@ -0,0 +1,153 @@
+/*
+ * This file is part of Hakbot Origin Controller.
+ *
+ * Hakbot Origin Controller is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * Hakbot Origin Controller is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * Hakbot Origin Controller. If not, see http://www.gnu.org/licenses/.
+ */
+package io.hakbot.util;
+
+/**
+ * The HttpUtil class contains convenience methods for evaluating conditional
+ * and partial HTTP requests
+ */
+public class HttpUtil {
+
+    private HttpUtil() { }
+
+    /**
+     * Determines if the specified ETag is matched by the value of an If-None-Match
+     * header. Comparison is weak, as required for If-None-Match, meaning the W/
+     * prefix is ignored on both sides. Returns false if the header is null.
+     */
+    public static boolean isETagMatch(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null || eTag == null) {
+            return false;
+        }
+        String opaqueTag = stripWeak(eTag);
+        for (String match: ifNoneMatch.split("\\s*,\\s*")) {
+            match = match.trim();
+            if ("*".equals(match) || opaqueTag.equals(stripWeak(match))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String eTag) {
+        return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+    }
+
+    /**
+     * Determines if the value of an Accept-Encoding header permits gzip.
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding: acceptEncoding.split("\\s*,\\s*")) {
+            String[] parts = coding.trim().split("\\s*;\\s*");
+            if ("gzip".equalsIgnoreCase(parts[0]) || "x-gzip".equalsIgnoreCase(parts[0])) {
+                return !(parts.length > 1 && parts[1].replace(" ", "").matches("q=0(\\.0*)?"));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses the value of a Range header against a representation of the specified length.
+     * Only a single byte range is supported. Returns null if the header is absent, malformed,
+     * or specifies multiple ranges, in which case the full representation should be returned.
+     */
+    public static ByteRange parseRange(String range, long length) {
+        if (range == null || !range.startsWith("bytes=") || range.contains(",")) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // Suffix range: the last n bytes
+                if (last.isEmpty()) {
+                    return null;
+                }
+                long suffix = Long.parseLong(last);
+                if (suffix == 0) {
+                    return new ByteRange(0, -1, length);
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+                if (!last.isEmpty() && Long.parseLong(last) < start) {
+                    return null;
+                }
+            }
+            return new ByteRange(start, end, length);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A single, inclusive byte range of a representation
+     */
+    public static class ByteRange {
+        private final long start;
+        private final long end;
+        private final long length;
+
+        ByteRange(long start, long end, long length) {
+            this.start = start;
+            this.end = end;
+            this.length = length;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * Returns the number of bytes in the range
+         */
+        public long getCount() {
+            return end - start + 1;
+        }
+
+        /**
+         * A range is not satisfiable if it starts beyond the end of the representation
+         */
+        public boolean isSatisfiable() {
+            return start < length && start <= end;
+        }
+
+        /**
+         * Returns the value of the Content-Range header for this range
+         */
+        public String toContentRange() {
+            return isSatisfiable() ? "bytes " + start + "-" + end + "/" + length : "bytes */" + length;
+        }
+    }
+
+}
@@ -54,6 +54,35 @@ public class ClientFactory {
 		return createInsecureSSLClient(acceptAllHostNames).register(JacksonFeatures.class).build();
 	}
 
+	/**
+	 * Creates a v6 client which trusts all certificates without changing the
+	 * HttpsURLConnection defaults of the JVM. The client is thread-safe and is
+	 * intended to be created once and shared.
+	 */
+	public static Client createSharedV6Client(final boolean acceptAllHostNames) {
+		TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
+			public java.security.cert.X509Certificate[] getAcceptedIssuers() {
+				return null;
+			}
+
+			public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
+
+			public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
+		} };
+		SSLContext sc;
+		try{
+			sc = SSLContext.getInstance("TLS");
+			sc.init(null, trustAllCerts, new java.security.SecureRandom());
+		}catch(Exception e){
+			throw new RuntimeException("Unable to initialize SSL context", e);
+		}
+		return ClientBuilder.newBuilder().sslContext(sc).hostnameVerifier(new javax.net.ssl.HostnameVerifier() {
+			public boolean verify(String hostname, javax.net.ssl.SSLSession sslSession) {
+				return acceptAllHostNames || hostname.equals("localhost");
+			}
+		}).register(JacksonFeatures.class).build();
+	}
+
 	public static Client createV5Client(final boolean acceptAllHostNames) {
 		return createInsecureSSLClient(acceptAllHostNames).build();
 	}
@@ -0,0 +1,89 @@
+package net.continuumsecurity;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs independent requests against a Nessus instance in parallel. The number of
+ * requests in flight to each instance is limited, including requests made by
+ * different clients at the same time.
+ */
+public class ParallelRequests {
+	public static final int							DEFAULT_MAX_IN_FLIGHT	= 8;
+	private static final ConcurrentMap<String, Semaphore>	limits					= new ConcurrentHashMap<String, Semaphore>();
+	private static final ConcurrentMap<String, Integer>		maxInFlight				= new ConcurrentHashMap<String, Integer>();
+
+	/**
+	 * Sets the maximum number of requests in flight to the specified instance.
+	 * Requests already running are not affected.
+	 */
+	public static void setMaxInFlight(String nessusUrl, int max) {
+		if(max < 1)
+			throw new IllegalArgumentException("The maximum number of requests in flight must be at least 1");
+		maxInFlight.put(nessusUrl, max);
+		limits.put(nessusUrl, new Semaphore(max));
+	}
+
+	public static int getMaxInFlight(String nessusUrl) {
+		Integer max = maxInFlight.get(nessusUrl);
+		return (max == null) ? DEFAULT_MAX_IN_FLIGHT : max;
+	}
+
+	private static Semaphore getLimit(String nessusUrl) {
+		Semaphore limit = limits.get(nessusUrl);
+		if(limit == null) {
+			limit = new Semaphore(getMaxInFlight(nessusUrl));
+			Semaphore existing = limits.putIfAbsent(nessusUrl, limit);
+			if(existing != null)
+				limit = existing;
+		}
+		return limit;
+	}
+
+	/**
+	 * Runs all of the tasks and waits for them to complete. If a task fails, the
+	 * remaining tasks are cancelled and the exception is rethrown.
+	 */
+	public static void runAll(final String nessusUrl, List<? extends Runnable> tasks) {
+		if(tasks.isEmpty())
+			return;
+		final Semaphore limit = getLimit(nessusUrl);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(tasks.size(), getMaxInFlight(nessusUrl)));
+		CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executor);
+		try {
+			for(final Runnable task : tasks) {
+				completionService.submit(new Callable<Void>() {
+					public Void call() throws InterruptedException {
+						limit.acquire();
+						try {
+							task.run();
+						} finally {
+							limit.release();
+						}
+						return null;
+					}
+				});
+			}
+			// Wait in order of completion, so the first failure is reported without delay
+			for(int i = 0; i < tasks.size(); i++)
+				completionService.take().get();
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new NessusException("Request to " + nessusUrl + " failed: " + e.getCause());
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new NessusException("Interrupted while waiting for requests to: " + nessusUrl);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
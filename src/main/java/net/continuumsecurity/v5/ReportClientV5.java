@@ -4,11 +4,14 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Form;
 
 import net.continuumsecurity.HostNotFoundException;
+import net.continuumsecurity.ParallelRequests;
 import net.continuumsecurity.ReportClient;
 import net.continuumsecurity.v5.model.Issue;
 import net.continuumsecurity.v5.model.jaxrs.Host;
@@ -36,17 +39,21 @@ public class ReportClientV5 extends SessionClientV5 implements ReportClient {
 		List<Host> hosts = getHostsFromReport(uuid);
 		for(Host host : hosts){
 			if(hostname.equalsIgnoreCase(host.getHostname())){
-				WebTarget reportTarget = target.path("/report/ports");
-				Form form = prepopulateForm();
-				form.param("report", uuid);
-				form.param("hostname", hostname);
-				NessusReply reply = sendRequestAndCheckError(reportTarget, form);
-				return reply.getContents().getPort();
+				return getPorts(uuid, hostname);
 			}
 		}
 		throw new HostNotFoundException("Hostname: " + hostname + " not found in report: " + uuid);
 	}
 
+	private List<Port> getPorts(String uuid, String hostname) {
+		WebTarget reportTarget = target.path("/report/ports");
+		Form form = prepopulateForm();
+		form.param("report", uuid);
+		form.param("hostname", hostname);
+		NessusReply reply = sendRequestAndCheckError(reportTarget, form);
+		return reply.getContents().getPort();
+	}
+
 	public List<ReportItem> getFindingsFromPort(String uuid, String host, int port, String protocol) {
 		WebTarget reportTarget = target.path("/report/details");
 		Form form = prepopulateForm();
@@ -58,30 +65,59 @@ public class ReportClientV5 extends SessionClientV5 implements ReportClient {
 		return reply.getContents().getReportItem();
 	}
 
-	public Map<Integer, Issue> getAllIssuesSortedByPluginId(String uuid) {
-		Map<Integer, Issue> issues = new HashMap<Integer, Issue>();
-		for(Host host : getHostsFromReport(uuid)){
-			for(Port port : getPortsFromHost(uuid, host.getHostname())){
-				for(ReportItem item : getFindingsFromPort(uuid, host.getHostname(), port.getPortNum(), port.getProtocol())){
-					Issue issue = issues.get(item.getPluginID());
-					if(issue == null){
-						issue = new Issue(nessusUrl, uuid);
-						issue.setHostnames(new ArrayList<String>());
-						issue.setPluginID(item.getPluginID());
-						issue.setPluginName(item.getPluginName());
-						issue.setPort(port.getPortNum());
-						issue.setSeverity(item.getSeverity());
-						issue.setProtocol(port.getProtocol());
-						issue.setDescription(item.getData().getDescription());
-						issue.setSolution(item.getData().getSolution());
-						issue.setOutput(item.getData().getPlugin_output());
-						issue.setSynopsis(item.getData().getSynopsis());
-						issues.put(item.getPluginID(), issue);
-					}
-					issue.getHostnames().add(host.getHostname());
+	/**
+	 * Fetches the ports of all hosts in parallel, and then the findings of all ports
+	 * in parallel (see {@link ParallelRequests}), merging them into one issue per plugin.
+	 * The hosts are listed once rather than once per host.
+	 */
+	public Map<Integer, Issue> getAllIssuesSortedByPluginId(final String uuid) {
+		final ConcurrentMap<Integer, Issue> issues = new ConcurrentHashMap<Integer, Issue>();
+		final ConcurrentMap<String, List<Port>> portsByHost = new ConcurrentHashMap<String, List<Port>>();
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		for(final Host host : getHostsFromReport(uuid)){
+			tasks.add(new Runnable() {
+				public void run() {
+					List<Port> ports = getPorts(uuid, host.getHostname());
+					if(ports != null)
+						portsByHost.put(host.getHostname(), ports);
 				}
+			});
+		}
+		ParallelRequests.runAll(nessusUrl, tasks);
+
+		tasks = new ArrayList<Runnable>();
+		for(final Map.Entry<String, List<Port>> entry : portsByHost.entrySet()){
+			for(final Port port : entry.getValue()){
+				tasks.add(new Runnable() {
+					public void run() {
+						String hostname = entry.getKey();
+						for(ReportItem item : getFindingsFromPort(uuid, hostname, port.getPortNum(), port.getProtocol())){
+							Issue issue = issues.get(item.getPluginID());
+							if(issue == null){
+								issue = new Issue(nessusUrl, uuid);
+								issue.setHostnames(new ArrayList<String>());
+								issue.setPluginID(item.getPluginID());
+								issue.setPluginName(item.getPluginName());
+								issue.setPort(port.getPortNum());
+								issue.setSeverity(item.getSeverity());
+								issue.setProtocol(port.getProtocol());
+								issue.setDescription(item.getData().getDescription());
+								issue.setSolution(item.getData().getSolution());
+								issue.setOutput(item.getData().getPlugin_output());
+								issue.setSynopsis(item.getData().getSynopsis());
+								Issue existing = issues.putIfAbsent(item.getPluginID(), issue);
+								if(existing != null)
+									issue = existing;
+							}
+							synchronized(issue){
+								issue.getHostnames().add(hostname);
+							}
+						}
+					}
+				});
 			}
 		}
-		return issues;
+		ParallelRequests.runAll(nessusUrl, tasks);
+		return new HashMap<Integer, Issue>(issues);
 	}
 }
\ No newline at end of file
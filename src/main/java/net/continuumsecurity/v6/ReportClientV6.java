@@ -1,11 +1,15 @@
 package net.continuumsecurity.v6;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.ws.rs.client.WebTarget;
 
+import net.continuumsecurity.ParallelRequests;
 import net.continuumsecurity.ReportClient;
 import net.continuumsecurity.v5.model.Issue;
 import net.continuumsecurity.v6.model.HostV6;
@@ -43,19 +47,34 @@ public class ReportClientV6 extends SessionClientV6 implements ReportClient {
 		return getRequest(reportTarget, HostV6.class);
 	}
 
-	public Map<Integer, Issue> getAllIssuesSortedByPluginId(String scanId) {
-		Map<Integer, Issue> issues = new HashMap<Integer, Issue>();
-		for(HostV6 host : getAllHosts(scanId)){
-			for(Vulnerability vuln : getVulnerabilities(scanId, host.getHostId())){
-				Issue issue = issues.get(vuln.getPluginId());
-				if(issue == null){
-					issue = vuln.toIssue(nessusUrl, scanId);
-					issues.put(vuln.getPluginId(), issue);
+	/**
+	 * Fetches the vulnerabilities of all hosts in parallel (see {@link ParallelRequests})
+	 * and merges them into one issue per plugin. The order of the hosts of each issue
+	 * follows the order in which the requests completed.
+	 */
+	public Map<Integer, Issue> getAllIssuesSortedByPluginId(final String scanId) {
+		final ConcurrentMap<Integer, Issue> issues = new ConcurrentHashMap<Integer, Issue>();
+		List<Runnable> tasks = new ArrayList<Runnable>();
+		for(final HostV6 host : getAllHosts(scanId)){
+			tasks.add(new Runnable() {
+				public void run() {
+					for(Vulnerability vuln : getVulnerabilities(scanId, host.getHostId())){
+						Issue issue = issues.get(vuln.getPluginId());
+						if(issue == null){
+							issue = vuln.toIssue(nessusUrl, scanId);
+							Issue existing = issues.putIfAbsent(vuln.getPluginId(), issue);
+							if(existing != null)
+								issue = existing;
+						}
+						synchronized(issue){
+							issue.getHostsV6().add(host);
+							issue.getHostnames().add(host.getHostname());
+						}
+					}
 				}
-				issue.getHostsV6().add(host);
-				issue.getHostnames().add(host.getHostname());
-			}
+			});
 		}
-		return issues;
+		ParallelRequests.runAll(nessusUrl, tasks);
+		return new HashMap<Integer, Issue>(issues);
 	}
 }
\ No newline at end of file
@@ -3,10 +3,13 @@ package net.continuumsecurity.v6;
 import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.client.Client;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.*;
 
@@ -28,26 +31,44 @@ import net.continuumsecurity.v6.model.Settings;
  * Created by stephen on 07/02/15.
  */
 public class ScanClientV6 extends SessionClientV6 implements ScanClient {
+	private static final Pattern FILENAME_PATTERN = Pattern.compile("filename\\s*=\\s*(?:\"([^\"]*)\"|([^;\\s]+))", Pattern.CASE_INSENSITIVE);
+
 	public ScanClientV6(String nessusUrl, boolean acceptAllHostNames) {
 		super(nessusUrl, acceptAllHostNames);
 	}
 
+	public ScanClientV6(String nessusUrl, Client client) {
+		super(nessusUrl, client);
+	}
+
+	/**
+	 * Returns the status of a single scan using the per-scan endpoint, rather than
+	 * retrieving the list of all scans.
+	 */
 	public String getScanStatus(String id) throws ScanNotFoundException {
-		WebTarget scanTarget = target.path("/scans");
-		int scanId = Integer.parseInt(id);
-		ScansV6 scans = getRequest(scanTarget, ScansV6.class);
-		for(ScanV6 scan : scans.getScans()){
-			if(scanId == scan.getId()){
-				return scan.getStatus();
-			}
-		}
-		throw new ScanNotFoundException("No scan with Id: " + id);
+		JsonObject info = getScanDetails(id).getJsonObject("info");
+		String status = (info == null) ? null : info.getString("status", null);
+		if(status == null)
+			throw new ScanNotFoundException("No status for scan with Id: " + id);
+		return status;
+	}
+
+	/**
+	 * Determines if a scan having the specified status is still running.
+	 */
+	public static boolean isRunningStatus(String status) {
+		return "running".equalsIgnoreCase(status) || "paused".equalsIgnoreCase(status);
 	}
 
 	public JsonObject getScanDetails(String id) throws ScanNotFoundException {
         int scanId = Integer.parseInt(id);
 		WebTarget scanTarget = target.path("/scans/" + scanId);
-        String response = getRequest(scanTarget, String.class);
+		String response;
+		try {
+			response = getRequest(scanTarget, String.class);
+		} catch (NotFoundException e) {
+			throw new ScanNotFoundException("No scan with Id: " + id, e);
+		}
         JsonReader jsonReader = Json.createReader(new StringReader(response));
         return jsonReader.readObject();
 	}
@@ -101,6 +122,15 @@ public class ScanClientV6 extends SessionClientV6 implements ScanClient {
 		return getRequest(scanTarget, ScansV6.class);
 	}
 
+	/**
+	 * Lists only the scans modified since the specified server time (in seconds since
+	 * the epoch). The timestamp of the returned list may be used for the next request.
+	 */
+	public ScansV6 listScans(long modifiedSince) {
+		WebTarget scanTarget = target.path("scans").queryParam("last_modification_date", modifiedSince);
+		return getRequest(scanTarget, ScansV6.class);
+	}
+
 	public ExportV6 export(int scanId, ExportFormat exportFormat) {
 		WebTarget target = this.target.path("scans").path(Integer.toString(scanId)).path("export");
 		ExportScanRequest exportScanRequest = new ExportScanRequest();
@@ -108,14 +138,33 @@ public class ScanClientV6 extends SessionClientV6 implements ScanClient {
 		return postRequest(target, exportScanRequest, ExportV6.class);
 	}
 
+	/**
+	 * Returns true once Nessus has finished generating the export.
+	 */
+	public boolean isExportReady(int scanId, ExportV6 export) {
+		WebTarget target = this.target.path("scans").path(Integer.toString(scanId)).path("export").path(export.getFile()).path("status");
+		String response = getRequest(target, String.class);
+		JsonReader jsonReader = Json.createReader(new StringReader(response));
+		return "ready".equalsIgnoreCase(jsonReader.readObject().getString("status", null));
+	}
+
+	/**
+	 * Opens the export for reading without writing it to disk. The export should be
+	 * ready (see {@link #isExportReady(int, ExportV6)}). The caller must close the stream.
+	 */
+	public InputStream openDownload(int scanId, ExportV6 export) {
+		Response response = requestDownload(scanId, export);
+		return response.readEntity(InputStream.class);
+	}
+
 	public File download(int scanId, ExportV6 export, Path outputPath) throws IOException {
-		WebTarget target = this.target.path("scans").path(Integer.toString(scanId)).path("export").path(export.getFile()).path("download");
-		Response response = getRequest(target, Response.class, MediaType.APPLICATION_OCTET_STREAM_TYPE);
-		String fileName = extractFileName(response);
-		InputStream inputStream = (InputStream) response.getEntity();
-		File targetFile = Files.createFile(outputPath.resolve(Paths.get(fileName))).toFile();
-		writeDownloadedFile(inputStream, targetFile);
-		return targetFile;
+		Response response = requestDownload(scanId, export);
+		String fileName = extractFileName(response, scanId + "-" + export.getFile());
+		Path targetPath = outputPath.resolve(fileName);
+		try (InputStream inputStream = response.readEntity(InputStream.class)) {
+			Files.copy(inputStream, targetPath);
+		}
+		return targetPath.toFile();
 	}
 	public File download(int scanId, ExportFormat exportFormat, Path outputPath) throws IOException {
 		return download(scanId, export(scanId, exportFormat), outputPath);
@@ -123,41 +172,43 @@ public class ScanClientV6 extends SessionClientV6 implements ScanClient {
 
 	public void launchScan(int id) {
 		WebTarget scanTarget = target.path("scans").path(Integer.toString(id)).path("launch");
-		Response response = postRequest(scanTarget, "", Response.class);
+		Response response = checkAuthorized(postRequest(scanTarget, "", Response.class));
 		if(response.getStatus() != 200)
 			throw new RuntimeException("Error launching scan with ID: " + id + ": " + response.getStatusInfo().getReasonPhrase());
 	}
 
 	public boolean isScanRunning(String scanId) {
 		try{
-			if("completed".equalsIgnoreCase(getScanStatus(scanId)))
-				return false;
-			if("running".equalsIgnoreCase(getScanStatus(scanId)) || "paused".equalsIgnoreCase(getScanStatus(scanId)))
-				return true;
+			return isRunningStatus(getScanStatus(scanId));
 		}catch(ScanNotFoundException e){
 			return false;
 		}
-		return false;
 	}
 
-	private void writeDownloadedFile(InputStream inputStream, File targetFile) throws IOException {
-		OutputStream outStream = null;
-		try {
-			outStream = new FileOutputStream(targetFile);
-			byte[] buffer = new byte[8 * 1024];
-			int bytesRead;
-			while ((bytesRead = inputStream.read(buffer)) != -1) {
-				outStream.write(buffer, 0, bytesRead);
-			}
-		} finally {
-			if (outStream != null) {
-				outStream.close();
-			}
+	private Response requestDownload(int scanId, ExportV6 export) {
+		WebTarget target = this.target.path("scans").path(Integer.toString(scanId)).path("export").path(export.getFile()).path("download");
+		Response response = checkAuthorized(getRequest(target, Response.class, MediaType.APPLICATION_OCTET_STREAM_TYPE));
+		if(response.getStatus() != 200) {
+			response.close();
+			throw new RuntimeException("Error downloading export of scan with ID: " + scanId + ": " + response.getStatusInfo().getReasonPhrase());
 		}
+		return response;
 	}
 
-	private String extractFileName(Response response) {
+	/**
+	 * Returns the file name from the Content-Disposition header (quoted or not), without
+	 * any path, or the default name if none was specified.
+	 */
+	private String extractFileName(Response response, String defaultName) {
 		String contentDisposition = response.getHeaderString(HttpHeaders.CONTENT_DISPOSITION);
-		return contentDisposition.substring(contentDisposition.indexOf("filename=") + "filename=\\".length(), contentDisposition.length() - 1);
+		if(contentDisposition != null) {
+			Matcher matcher = FILENAME_PATTERN.matcher(contentDisposition);
+			if(matcher.find()) {
+				String fileName = new File(matcher.group(1) != null ? matcher.group(1) : matcher.group(2)).getName();
+				if(!fileName.isEmpty() && !fileName.equals("..") && !fileName.equals("."))
+					return fileName;
+			}
+		}
+		return defaultName;
 	}
 }
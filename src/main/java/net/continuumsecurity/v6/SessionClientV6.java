@@ -3,6 +3,7 @@ package net.continuumsecurity.v6;
 import java.util.logging.Logger;
 
 import javax.security.auth.login.LoginException;
+import javax.ws.rs.NotAuthorizedException;
 import javax.ws.rs.client.*;
 import javax.ws.rs.core.Form;
 import javax.ws.rs.core.MediaType;
@@ -23,12 +24,19 @@ public class SessionClientV6 implements SessionClient {
 	private static final String	APIKEY_HEADER	= "X-ApiKeys";
 	private static Logger		log				= Logger.getLogger(ScanClientV6.class.toString());
 	protected String			nessusUrl;
-	private String authHeader;
-	private String authParam;
+	private volatile String authHeader;
+	private volatile String authParam;
 
 	public SessionClientV6(String nessusUrl, boolean acceptAllHostNames) {
+		this(nessusUrl, ClientFactory.createV6Client(acceptAllHostNames));
+	}
+
+	/**
+	 * Creates a session client using an existing (possibly shared) client.
+	 */
+	public SessionClientV6(String nessusUrl, Client client) {
 		this.nessusUrl = nessusUrl;
-		client = ClientFactory.createV6Client(acceptAllHostNames);
+		this.client = client;
 		target = client.target(nessusUrl);
 	}
 
@@ -59,6 +67,16 @@ public class SessionClientV6 implements SessionClient {
 		log.info("Logout: " + response.getStatusInfo().getReasonPhrase());
 	}
 
+	/**
+	 * Throws a NotAuthorizedException if the session token or API keys were rejected.
+	 * Requests which return the raw Response are otherwise not checked by the client.
+	 */
+	protected Response checkAuthorized(Response response) {
+		if(response.getStatus() == Response.Status.UNAUTHORIZED.getStatusCode())
+			throw new NotAuthorizedException(response);
+		return response;
+	}
+
 	protected <T> T postRequest(WebTarget target, Object object, Class<T> returnType) {
 		return target.request(MediaType.APPLICATION_JSON_TYPE).header(authHeader, authParam).post(Entity.entity(object, MediaType.APPLICATION_JSON_TYPE), returnType);
 	}
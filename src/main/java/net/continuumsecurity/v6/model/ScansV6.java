@@ -12,6 +12,7 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class ScansV6 {
 	private List<ScanV6>	scans;
+	private long			timestamp;
 
 	@XmlElement(name = "scans")
 	public List<ScanV6> getScans() {
@@ -21,4 +22,16 @@ public class ScansV6 {
 	public void setScans(List<ScanV6> scans) {
 		this.scans = scans;
 	}
+
+	/**
+	 * The time of the server when the list was generated, in seconds since the epoch.
+	 */
+	@XmlElement(name = "timestamp")
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
 }
\ No newline at end of file
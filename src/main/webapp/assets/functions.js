@@ -31,6 +31,7 @@ const URL_PROVIDERS = "/v1/providers";
 const URL_PUBLISHERS = "/v1/publishers";
 const URL_HAKMASTER = "/v1/user/hakmaster";
 const URL_JOB = "/v1/job";
+const URL_JOB_STREAM = "/v1/job/stream";
 const URL_CONSOLE_JOB = "/v1/console/job";
 const URL_TEAM = "/v1/team";
 const URL_USER = "/v1/user";
@@ -54,6 +55,8 @@ var providers;
 var publishers;
 var selectedJob;
 var isHakmaster = false;
+var modalApi;
+var jobStream = { lastEventId: null, retry: 5000, reader: null };
 
 
 function contextPath() {
@@ -137,9 +140,111 @@ function initialize() {
         if (!isHakmaster) {
             $('#nav-admin').css('display', "none");
         }
+        subscribeJobUpdates();
     }
 }
 
+/**
+ * Subscribes to the stream of job updates, so that the jobs table and details are updated
+ * without polling. EventSource cannot send the Authorization header, so the stream is read
+ * using fetch. Each response ends once updates are received, and the stream is reopened to
+ * resume after the last update received.
+ */
+function subscribeJobUpdates() {
+    if (jobStream.reader != null || !window.fetch || !window.TextDecoder) {
+        return;
+    }
+    var headers = { 'Accept': 'text/event-stream' };
+    var jwt = $.sessionStorage.get("token");
+    if (jwt != null) {
+        headers['Authorization'] = 'Bearer ' + jwt;
+    }
+    if (jobStream.lastEventId != null) {
+        headers['Last-Event-ID'] = jobStream.lastEventId;
+    }
+    var reconnect = function() {
+        jobStream.reader = null;
+        setTimeout(subscribeJobUpdates, jobStream.retry);
+    };
+    fetch(contextPath() + URL_JOB_STREAM, { headers: headers, cache: 'no-store' }).then(function (response) {
+        if (response.status == 401) {
+            return;
+        }
+        if (!response.ok || !response.body) {
+            reconnect();
+            return;
+        }
+        var decoder = new TextDecoder();
+        var buffer = "";
+        jobStream.reader = response.body.getReader();
+        var read = function() {
+            jobStream.reader.read().then(function (result) {
+                if (result.done) {
+                    reconnect();
+                    return;
+                }
+                buffer += decoder.decode(result.value, { stream: true });
+                var end;
+                while ((end = buffer.indexOf("\n\n")) >= 0) {
+                    parseJobUpdate(buffer.substring(0, end));
+                    buffer = buffer.substring(end + 2);
+                }
+                read();
+            }, reconnect);
+        };
+        read();
+    }, reconnect);
+}
+
+/**
+ * Parses a single server-sent event from the job update stream and applies it
+ */
+function parseJobUpdate(text) {
+    var event = "message", data = "";
+    var lines = text.split("\n");
+    for (var i = 0; i < lines.length; i++) {
+        var separator = lines[i].indexOf(":");
+        if (separator <= 0) {
+            continue; // comments and blank lines
+        }
+        var field = lines[i].substring(0, separator);
+        var value = lines[i].substring(separator + 1).replace(/^ /, "");
+        if (field == "id") {
+            jobStream.lastEventId = value;
+        } else if (field == "event") {
+            event = value;
+        } else if (field == "data") {
+            data += value;
+        } else if (field == "retry") {
+            jobStream.retry = parseInt(value, 10) || jobStream.retry;
+        }
+    }
+    if (event == "reset") {
+        refreshJobTable();
+    } else if (event == "state") {
+        var update = JSON.parse(data);
+        refreshJobTable();
+        if (selectedJob && selectedJob.uuid == update.uuid) {
+            selectedJob.state = update.state;
+            $('#details-stateLabel').html(getPrettyState(update.state));
+            $('#details-successLabel').html(getSuccessLabel(update.state));
+        }
+    } else if (event == "message") {
+        var message = JSON.parse(data);
+        if (selectedJob && selectedJob.uuid == message.uuid && modalApi == "/message" && $('#modalTextDetail').is(':visible')) {
+            var textarea = $('#details-result');
+            textarea.val(textarea.val() ? textarea.val() + "\n" + message.message : message.message);
+        }
+    }
+}
+
+/**
+ * Refreshes the jobs table at most once a second, however many updates are received
+ */
+var refreshJobTable = debounce(function() {
+    $('#jobsTable').bootstrapTable('refresh', { silent: true });
+}, 1000);
+
 /**
  * Generic handler for all AJAX requests
  */
@@ -458,6 +563,7 @@ $('#modalTextDetail').on('show.bs.modal', function(e) {
     textarea.val(null);
 
     var api = $(e.relatedTarget).data('api');
+    modalApi = api;
     var url = contextPath() + URL_JOB + "/" + selectedJob.uuid + api;
     populateModalTextarea(url);
 });
@@ -16,12 +16,40 @@
  */
 package io.hakbot.controller.resources.v1;
 
+import alpine.persistence.PersistenceManagerFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import io.hakbot.controller.event.JobUpdateEvent;
+import io.hakbot.controller.model.Job;
+import io.hakbot.controller.model.JobArtifact;
+import io.hakbot.controller.model.JobMessage;
+import io.hakbot.controller.workers.JobUpdateWriter;
+import io.hakbot.controller.workers.State;
+import io.hakbot.controller.workers.WebhookDispatcher;
 import io.hakbot.util.JsonUtil;
+import org.apache.commons.io.IOUtils;
 import org.junit.Assert;
 import org.junit.Test;
+import javax.jdo.PersistenceManager;
+import javax.jdo.Query;
 import javax.json.JsonArray;
 import javax.json.JsonNumber;
 import javax.json.JsonObject;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 public class JobResourceTest extends BaseResourceTest {
 
@@ -37,6 +65,37 @@ public class JobResourceTest extends BaseResourceTest {
         }
     }
 
+    @Test
+    public void testJobsPaged() {
+        Set<String> uuids = new HashSet<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            WebTarget target = target(Target.JOB.target).queryParam("limit", 4);
+            if (cursor != null) {
+                target = target.queryParam("after", cursor);
+            }
+            Response response = target.request()
+                    .header(HEADER_API_KEY_NAME, HEADER_API_KEY_VALUE)
+                    .get();
+            Assert.assertEquals(200, response.getStatus());
+            JsonArray jsonResponse = JsonUtil.toJsonArray(response.readEntity(String.class));
+            for (JsonObject jsonObject : jsonResponse.getValuesAs(JsonObject.class)) {
+                Assert.assertTrue(uuids.add(jsonObject.getString("uuid")));
+            }
+            cursor = response.getHeaderString("X-Next-Cursor");
+            pages++;
+        } while (cursor != null && pages < 10);
+        Assert.assertEquals(10, uuids.size());
+
+        JsonArray jsonResponse = JsonUtil.toJsonArray(target(Target.JOB.target)
+                .queryParam("state", "COMPLETED")
+                .request()
+                .header(HEADER_API_KEY_NAME, HEADER_API_KEY_VALUE)
+                .get(String.class));
+        Assert.assertEquals(0, jsonResponse.size());
+    }
+
     @Test
     public void testJobByUuid() {
         JsonObject jsonResponse = JsonUtil.toJsonObject(target(Target.JOB.target)
@@ -56,4 +115,213 @@ public class JobResourceTest extends BaseResourceTest {
         Assert.assertTrue(jsonResponse.getInt("startedByApiKeyId") > 0);
     }
 
+    /**
+     * Creates objects belonging to one of the jobs created by BaseResourceTest
+     */
+    private interface Fixture {
+        Object[] create(Job job);
+    }
+
+    /**
+     * Persists the objects created by the fixture for the job with the specified UUID
+     */
+    @SuppressWarnings("unchecked")
+    private void persist(String jobUuid, Fixture fixture) {
+        PersistenceManager pm = PersistenceManagerFactory.createPersistenceManager();
+        try {
+            Query query = pm.newQuery(Job.class, "uuid == :uuid");
+            Job job = ((List<Job>)query.execute(jobUuid)).get(0);
+            pm.currentTransaction().begin();
+            pm.makePersistentAll(fixture.create(job));
+            pm.currentTransaction().commit();
+        } finally {
+            pm.close();
+        }
+    }
+
+    @Test
+    public void testJobMessagesSince() {
+        persist("00000000-0000-0000-0000-000000000001", new Fixture() {
+            public Object[] create(Job job) {
+                return new Object[] {
+                        new JobMessage(job, 1, JobMessage.Level.INFO, "Message 1"),
+                        new JobMessage(job, 2, JobMessage.Level.INFO, "Message 2"),
+                        new JobMessage(job, 3, JobMessage.Level.INFO, "Message 3")
+                };
+            }
+        });
+
+        Response response = target(Target.JOB.target)
+                .path("00000000-0000-0000-0000-000000000001").path("message")
+                .queryParam("since", 1)
+                .request()
+                .header(HEADER_API_KEY_NAME, HEADER_API_KEY_VALUE)
+                .get();
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertEquals("3", response.getHeaderString("X-Last-Sequence"));
+        String[] lines = response.readEntity(String.class).split("\n");
+        Assert.assertEquals(2, lines.length);
+        Assert.assertTrue(lines[0].endsWith(" - Message 2"));
+        Assert.assertTrue(lines[1].endsWith(" - Message 3"));
+    }
+
+    @Test
+    public void testJobPayloadRangeAndETag() {
+        persist("00000000-0000-0000-0000-000000000002", new Fixture() {
+            public Object[] create(Job job) {
+                JobArtifact artifact = new JobArtifact();
+                artifact.setJobid(job.getId());
+                artifact.setUuid("00000000-0000-0000-0000-000000000010");
+                artifact.setType(JobArtifact.Type.PROVIDER_PAYLOAD);
+                artifact.setMimetype(JobArtifact.MimeType.JSON);
+                artifact.setContents("0123456789".getBytes());
+                return new Object[] {artifact};
+            }
+        });
+
+        Response response = target(Target.JOB.target)
+                .path("00000000-0000-0000-0000-000000000002").path("payload").path("provider")
+                .request()
+                .header(HEADER_API_KEY_NAME, HEADER_API_KEY_VALUE)
+                .header("Range", "bytes=2-5")
+                .get();
+        Assert.assertEquals(206, response.getStatus());
+        Assert.assertEquals("bytes 2-5/10", response.getHeaderString("Content-Range"));
+        Assert.assertEquals("2345", response.readEntity(String.class));
+        String eTag = response.getHeaderString("ETag");
+        Assert.assertNotNull(eTag);
+
+        response = target(Target.JOB.target)
+                .path("00000000-0000-0000-0000-000000000002").path("payload").path("provider")
+                .request()
+                .header(HEADER_API_KEY_NAME, HEADER_API_KEY_VALUE)
+                .header("If-None-Match", eTag)
+                .get();
+        Assert.assertEquals(304, response.getStatus());
+
+        response = target(Target.JOB.target)
+                .path("00000000-0000-0000-0000-000000000002").path("payload").path("provider")
+                .request()
+                .header(HEADER_API_KEY_NAME, HEADER_API_KEY_VALUE)
+                .header("Accept-Encoding", "gzip")
+                .get();
+        Assert.assertEquals(200, response.getStatus());
+        String gzipETag = response.getHeaderString("ETag");
+        Assert.assertTrue(gzipETag.endsWith("-gzip\""));
+
+        response = target(Target.JOB.target)
+                .path("00000000-0000-0000-0000-000000000002").path("payload").path("provider")
+                .request()
+                .header(HEADER_API_KEY_NAME, HEADER_API_KEY_VALUE)
+                .header("Accept-Encoding", "gzip")
+                .header("If-None-Match", gzipETag)
+                .get();
+        Assert.assertEquals(304, response.getStatus());
+
+        response = target(Target.JOB.target)
+                .path("00000000-0000-0000-0000-000000000002").path("payload").path("provider")
+                .request()
+                .header(HEADER_API_KEY_NAME, HEADER_API_KEY_VALUE)
+                .header("Range", "bytes=20-")
+                .get();
+        Assert.assertEquals(416, response.getStatus());
+    }
+
+    @Test
+    public void testJobBatch() {
+        String batch = "["
+                + "{\"name\": \"Batch 1\", \"provider\": {\"class\": \"io.hakbot.providers.shell.ShellProvider\", \"payload\": {\"command\": \"echo 1\"}}},"
+                + "{\"name\": \"Batch 2\", \"provider\": {\"class\": \"com.example.UnknownProvider\", \"payload\": {}}},"
+                + "{\"name\": \"Batch 3\", \"provider\": {\"class\": \"io.hakbot.providers.shell.ShellProvider\", \"payload\": {\"command\": \"echo 3\"}}}"
+                + "]";
+        Response response = target(Target.JOB.target).path("batch")
+                .request()
+                .header(HEADER_API_KEY_NAME, HEADER_API_KEY_VALUE)
+                .post(Entity.entity(batch, MediaType.APPLICATION_JSON));
+        Assert.assertEquals(200, response.getStatus());
+        JsonArray results = JsonUtil.toJsonArray(response.readEntity(String.class));
+        Assert.assertEquals(3, results.size());
+        Assert.assertEquals("Batch 1", results.getJsonObject(0).getJsonObject("job").getString("name"));
+        Assert.assertTrue(results.getJsonObject(1).getString("error").contains("not enabled"));
+        Assert.assertFalse(results.getJsonObject(1).containsKey("job"));
+        Assert.assertEquals(2, results.getJsonObject(2).getInt("index"));
+        Assert.assertEquals("Batch 3", results.getJsonObject(2).getJsonObject("job").getString("name"));
+    }
+
+    @Test
+    public void testJobStreamRejected() {
+        Response response = target(Target.JOB.target + "/stream")
+                .queryParam("uuid", "00000000-0000-0000-0000-999999999999")
+                .request()
+                .header(HEADER_API_KEY_NAME, HEADER_API_KEY_VALUE)
+                .get();
+        Assert.assertEquals(404, response.getStatus());
+        response = target(Target.JOB.target + "/stream")
+                .request()
+                .header(HEADER_API_KEY_NAME, HEADER_API_KEY_VALUE)
+                .header("Last-Event-ID", "invalid")
+                .get();
+        Assert.assertEquals(400, response.getStatus());
+    }
+
+    @Test
+    public void testJobCallback() throws Exception {
+        final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/callback", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                received.add(IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8));
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        // The callback server listens on the loopback address, which is otherwise rejected
+        WebhookDispatcher.getInstance().setAllowedHosts(Collections.singletonList("127.0.0.1"));
+        try {
+            String callback = "http://127.0.0.1:" + server.getAddress().getPort() + "/callback";
+            String request = "{\"name\":\"Callback\",\"provider\":{\"class\":\"io.hakbot.providers.shell.ShellProvider\",\"payload\":{}},"
+                    + "\"callbacks\":[\"" + callback + "\"]}";
+            Response response = target(Target.JOB.target)
+                    .request()
+                    .header(HEADER_API_KEY_NAME, HEADER_API_KEY_VALUE)
+                    .post(Entity.entity(request, MediaType.APPLICATION_JSON));
+            Assert.assertEquals(200, response.getStatus());
+            String uuid = JsonUtil.toJsonObject(response.readEntity(String.class)).getString("uuid");
+
+            JobUpdateWriter.getInstance().enqueue(new JobUpdateEvent(uuid).state(State.IN_PROGRESS));
+            JobUpdateWriter.getInstance().enqueue(new JobUpdateEvent(uuid).state(State.COMPLETED));
+            JobUpdateWriter.getInstance().flush();
+
+            String body = received.poll(30, TimeUnit.SECONDS);
+            Assert.assertNotNull(body);
+            JsonArray notifications = JsonUtil.toJsonArray(body);
+            Assert.assertEquals(1, notifications.size());
+            Assert.assertEquals(uuid, notifications.getJsonObject(0).getString("uuid"));
+            Assert.assertEquals("COMPLETED", notifications.getJsonObject(0).getString("state"));
+        } finally {
+            WebhookDispatcher.getInstance().setAllowedHosts(Collections.<String>emptyList());
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testJobInvalidCallback() {
+        String request = "{\"name\":\"Callback\",\"provider\":{\"class\":\"io.hakbot.providers.shell.ShellProvider\",\"payload\":{}},"
+                + "\"callbacks\":[\"ftp://example.com/callback\"]}";
+        Response response = target(Target.JOB.target)
+                .request()
+                .header(HEADER_API_KEY_NAME, HEADER_API_KEY_VALUE)
+                .post(Entity.entity(request, MediaType.APPLICATION_JSON));
+        Assert.assertEquals(400, response.getStatus());
+        // Internal addresses are rejected unless their host is allowed
+        request = "{\"name\":\"Callback\",\"provider\":{\"class\":\"io.hakbot.providers.shell.ShellProvider\",\"payload\":{}},"
+                + "\"callbacks\":[\"http://169.254.169.254/latest/meta-data\"]}";
+        response = target(Target.JOB.target)
+                .request()
+                .header(HEADER_API_KEY_NAME, HEADER_API_KEY_VALUE)
+                .post(Entity.entity(request, MediaType.APPLICATION_JSON));
+        Assert.assertEquals(400, response.getStatus());
+    }
+
 }